@@ -0,0 +1,178 @@
+package thespeace.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>커넥션 단위 PreparedStatement 캐시</h1>
+ * 리포지토리는 메서드마다 {@code con.prepareStatement(sql)}로 statement 를 만들고 닫는다.
+ * 하나의 트랜잭션 안에서 같은 SQL 을 반복 실행하면 그때마다 SQL 파싱 비용이 다시 든다.<br><br>
+ *
+ * <h2>동작 방식</h2>
+ * <ul>
+ *     <li>트랜잭션 동기화로 현재 쓰레드에 커넥션이 바인딩되어 있을 때({@code DataSourceUtils.isConnectionTransactional})만
+ *         캐시한다. 캐시는 (커넥션, SQL) 단위이며 커넥션마다 최대 maxSize 개를 LRU 로 유지한다.</li>
+ *     <li>캐시도 {@code TransactionSynchronizationManager}의 리소스로 바인딩되고, 트랜잭션이 끝나면
+ *         (커밋/롤백 모두) 커넥션이 풀로 반환되기 전에 모든 statement 를 닫는다.
+ *         커넥션이 오류로 무효화되어도 트랜잭션은 롤백되므로 같이 정리된다.</li>
+ *     <li>트랜잭션 밖에서는 커넥션이 호출마다 풀에서 새로 나오므로 재사용할 수 없다. 이 경우 기존과 같이
+ *         statement 를 만들고 {@link #release(String, PreparedStatement)}에서 닫는다.</li>
+ * </ul>
+ * hit/miss/eviction 횟수로 maxSize 를 조정할 수 있다.
+ */
+@Slf4j
+public class PreparedStatementCache {
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private final DataSource dataSource;
+    private final int maxSize;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public PreparedStatementCache(DataSource dataSource) {
+        this(dataSource, DEFAULT_MAX_SIZE);
+    }
+
+    public PreparedStatementCache(DataSource dataSource, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.dataSource = dataSource;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 캐시된 statement 가 있으면 재사용하고, 없으면 새로 만든다.
+     * 사용이 끝나면 닫지 말고 {@link #release(String, PreparedStatement)}를 호출해야 한다.
+     */
+    public PreparedStatement prepare(Connection con, String sql) throws SQLException {
+        Statements statements = boundStatements(con);
+        if (statements == null) {
+            missCount.increment();
+            return con.prepareStatement(sql);
+        }
+
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt != null && !pstmt.isClosed()) {
+            hitCount.increment();
+            return pstmt;
+        }
+
+        missCount.increment();
+        pstmt = con.prepareStatement(sql);
+        statements.put(sql, pstmt);
+        return pstmt;
+    }
+
+    /**
+     * 캐시된 statement 는 트랜잭션이 끝날 때까지 열어두고, 캐시되지 않은 statement 는 바로 닫는다.
+     */
+    public void release(String sql, PreparedStatement pstmt) {
+        if (pstmt == null) {
+            return;
+        }
+        Statements statements = (Statements) TransactionSynchronizationManager.getResource(this);
+        if (statements != null && statements.get(sql) == pstmt) {
+            return;
+        }
+        JdbcUtils.closeStatement(pstmt);
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    private Statements boundStatements(Connection con) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || !DataSourceUtils.isConnectionTransactional(con, dataSource)) {
+            return null;
+        }
+
+        Statements statements = (Statements) TransactionSynchronizationManager.getResource(this);
+        if (statements == null) {
+            statements = new Statements(con);
+            TransactionSynchronizationManager.bindResource(this, statements);
+            TransactionSynchronizationManager.registerSynchronization(new StatementsSynchronization(statements));
+        }
+        return statements.con == con ? statements : null;
+    }
+
+    /**
+     * 하나의 커넥션에 대한 LRU 캐시, 한 쓰레드(트랜잭션)에서만 사용하므로 동기화하지 않는다.
+     */
+    private final class Statements extends LinkedHashMap<String, PreparedStatement> {
+
+        private final Connection con;
+
+        Statements(Connection con) {
+            super(16, 0.75f, true);
+            this.con = con;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            JdbcUtils.closeStatement(eldest.getValue());
+            evictionCount.increment();
+            return true;
+        }
+
+        void closeAll() {
+            values().forEach(JdbcUtils::closeStatement);
+            clear();
+        }
+    }
+
+    /**
+     * REQUIRES_NEW 등으로 트랜잭션이 보류되면 캐시도 함께 바인딩을 해제했다가 재개할 때 다시 바인딩한다.
+     */
+    private final class StatementsSynchronization implements TransactionSynchronization {
+
+        private final Statements statements;
+
+        StatementsSynchronization(Statements statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(PreparedStatementCache.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(PreparedStatementCache.this, statements);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(PreparedStatementCache.this);
+            statements.closeAll();
+            log.debug("statement cache hit={}, miss={}, eviction={}", getHitCount(), getMissCount(), getEvictionCount());
+        }
+    }
+}
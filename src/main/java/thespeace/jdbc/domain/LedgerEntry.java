@@ -0,0 +1,29 @@
+package thespeace.jdbc.domain;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * <h2>이체 원장 기록</h2>
+ * member_transfer 테이블의 row 하나. 한 번 기록하면 수정하거나 삭제하지 않는다.
+ */
+@Getter
+@ToString
+public class LedgerEntry {
+
+    private final long transferId;
+    private final String fromId;
+    private final String toId;
+    private final int amount;
+    private final Instant createdAt;
+
+    public LedgerEntry(long transferId, String fromId, String toId, int amount, Instant createdAt) {
+        this.transferId = transferId;
+        this.fromId = fromId;
+        this.toId = toId;
+        this.amount = amount;
+        this.createdAt = createdAt;
+    }
+}
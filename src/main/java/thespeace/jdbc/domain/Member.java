@@ -1,6 +1,7 @@
 package thespeace.jdbc.domain;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 /**
  * <h2>member table schema</h2>
@@ -9,15 +10,24 @@ import lombok.Data;
  * create table member (
  *     member_id varchar(10),
  *     money integer not null default 0,
+ *     version bigint not null default 0,
  *     primary key (member_id)
  * );
  * </pre></blockquote>
+ * 기존 테이블은 {@code alter table member add column version bigint not null default 0}으로 컬럼을 추가한다.
+ *
+ * <h2>version</h2>
+ * MemberRepositoryV4_1 이후의 리포지토리는 잔액을 바꿀 때마다 version 을 1 올린다.
+ * 조회한 version 으로 {@code updateWithVersion}을 호출하면 그 사이 다른 변경이 있었는지 알 수 있다.(낙관적 락)
+ * version 은 동시성 제어용 값이라 equals/hashCode 에는 포함하지 않는다.
  */
 @Data
 public class Member {
 
     private String memberId;
     private int money;
+    @EqualsAndHashCode.Exclude
+    private long version;
 
     public Member() {
     }
@@ -26,4 +36,10 @@ public class Member {
         this.memberId = memberId;
         this.money = money;
     }
+
+    public Member(String memberId, int money, long version) {
+        this.memberId = memberId;
+        this.money = money;
+        this.version = version;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package thespeace.jdbc.domain;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * <h2>이체 요청</h2>
+ * fromId 에서 toId 로 money 를 옮긴다. 금액은 양수이고, 자기 자신에게 이체할 수 없다.
+ */
+@Getter
+@ToString
+public class Transfer {
+
+    private final String fromId;
+    private final String toId;
+    private final int money;
+
+    public Transfer(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("fromId and toId must be different: " + fromId);
+        }
+        if (money <= 0) {
+            throw new IllegalArgumentException("money must be positive: " + money);
+        }
+        this.fromId = fromId;
+        this.toId = toId;
+        this.money = money;
+    }
+}
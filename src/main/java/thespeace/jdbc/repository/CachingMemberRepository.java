@@ -0,0 +1,178 @@
+package thespeace.jdbc.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import thespeace.jdbc.domain.Member;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * <h1>회원 조회 캐시(read-through)</h1>
+ * 잔액 조회가 대부분인 트래픽에서 findById 마다 DB 에 가지 않도록 delegate 리포지토리 앞에 캐시를 둔다.
+ * 어떤 MemberRepository 구현체든 감쌀 수 있다.
+ * <ul>
+ *     <li>캐시는 Caffeine 을 사용한다. maximumSize 를 넘으면 W-TinyLFU 정책으로 제거하고, ttl 이 지나면 만료된다.</li>
+ *     <li>캐시에 있는 Member 는 밖으로 내보내지 않고 항상 복사본을 반환한다. (Member 는 변경 가능한 객체다)</li>
+ * </ul>
+ *
+ * <h2>트랜잭션과 캐시 무효화</h2>
+ * 트랜잭션 안에서 변경한 회원은 커밋 전까지 다른 트랜잭션에 보이지 않고, 롤백되면 사라지는 값이다.
+ * 이런 값이 캐시에 들어가면 롤백된 이체({@code MemberServiceV4.validation}의 "ex" 경우)가 캐시에 남게 된다.
+ * <ul>
+ *     <li>변경(save, update, delete 등)한 id 는 트랜잭션 리소스에 기록하고, 같은 트랜잭션 안의 조회는 캐시를 거치지 않는다.</li>
+ *     <li>{@code TransactionSynchronization.afterCompletion}에서 기록한 id 를 캐시에서 제거한다.
+ *         커밋이면 다음 조회에서 새 값을 읽고, 롤백이면 원래 값을 다시 읽는다.</li>
+ *     <li>트랜잭션 밖의 변경은 바로 반영되므로 즉시 제거한다.</li>
+ * </ul>
+ * 다른 애플리케이션이 DB 를 직접 변경하는 경우는 알 수 없으므로 ttl 만큼은 이전 값이 보일 수 있다.
+ */
+@Slf4j
+public class CachingMemberRepository extends ForwardingMemberRepository {
+
+    private final Cache<String, Member> cache;
+    private final TransactionalWriteTracker writeTracker;
+
+    public CachingMemberRepository(MemberRepository delegate, long maximumSize, Duration ttl) {
+        super(delegate);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.writeTracker = new TransactionalWriteTracker(writtenIds -> {
+            cache.invalidateAll(writtenIds);
+            log.debug("evict memberIds={}", writtenIds);
+        });
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        if (isWrittenInTransaction(memberId)) {
+            return delegate.findById(memberId);
+        }
+        //없는 회원이면 delegate 의 예외가 그대로 전달되고 캐시에는 남지 않는다.
+        return copy(cache.get(memberId, delegate::findById));
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        if (isWrittenInTransaction(memberId)) {
+            return delegate.findOptionalById(memberId);
+        }
+        //mappingFunction 이 null 을 반환하면 캐시에 남지 않는다.
+        Member member = cache.get(memberId, id -> delegate.findOptionalById(id).orElse(null));
+        return Optional.ofNullable(member).map(CachingMemberRepository::copy);
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        if (!isWrittenInTransaction(memberId) && cache.getIfPresent(memberId) != null) {
+            return true;
+        }
+        return delegate.existsById(memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        List<String> cacheableIds = new ArrayList<>();
+        List<String> writtenIds = new ArrayList<>();
+        for (String memberId : memberIds) {
+            (isWrittenInTransaction(memberId) ? writtenIds : cacheableIds).add(memberId);
+        }
+
+        Map<String, Member> result = new HashMap<>();
+        cache.getAll(cacheableIds, ids -> delegate.findAllById(new ArrayList<>(ids)))
+                .forEach((memberId, member) -> result.put(memberId, copy(member)));
+        if (!writtenIds.isEmpty()) {
+            result.putAll(delegate.findAllById(writtenIds));
+        }
+        return result;
+    }
+
+    @Override
+    public Member save(Member member) {
+        Member savedMember = delegate.save(member);
+        evict(member.getMemberId());
+        return savedMember;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        delegate.update(memberId, money);
+        evict(memberId);
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        delegate.updateAll(members);
+        members.forEach(member -> evict(member.getMemberId()));
+    }
+
+    @Override
+    public void delete(String memberId) {
+        delegate.delete(memberId);
+        evict(memberId);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        delegate.saveAll(members);
+        members.forEach(member -> evict(member.getMemberId()));
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        boolean inserted = delegate.saveOrUpdate(member);
+        evict(member.getMemberId());
+        return inserted;
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        boolean inserted = delegate.insertIfAbsent(member);
+        evict(member.getMemberId());
+        return inserted;
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        boolean adjusted = delegate.adjustBalance(memberId, delta, minBalance);
+        evict(memberId);
+        return adjusted;
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        int applied = delegate.adjustAll(deltas, minBalance);
+        deltas.keySet().forEach(this::evict);
+        return applied;
+    }
+
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        Optional<TransferResult> result = delegate.transfer(fromId, toId, money);
+        evict(fromId);
+        evict(toId);
+        return result;
+    }
+
+    private void evict(String memberId) {
+        cache.invalidate(memberId);
+        writeTracker.add(memberId);
+    }
+
+    private boolean isWrittenInTransaction(String memberId) {
+        return writeTracker.contains(memberId);
+    }
+
+    private static Member copy(Member member) {
+        return new Member(member.getMemberId(), member.getMoney(), member.getVersion());
+    }
+}
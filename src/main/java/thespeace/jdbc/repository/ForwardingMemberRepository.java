@@ -0,0 +1,101 @@
+package thespeace.jdbc.repository;
+
+import thespeace.jdbc.domain.Member;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <h1>MemberRepository 데코레이터 기반 클래스</h1>
+ * 모든 메서드를 delegate 에 그대로 위임한다.
+ * 캐시처럼 기존 리포지토리에 동작을 덧붙이는 리포지토리는 이 클래스를 상속해서 필요한 메서드만 재정의한다.
+ */
+public abstract class ForwardingMemberRepository implements MemberRepository {
+
+    protected final MemberRepository delegate;
+
+    protected ForwardingMemberRepository(MemberRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Member save(Member member) {
+        return delegate.save(member);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return delegate.findById(memberId);
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return delegate.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        return delegate.findOptionalById(memberId);
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return delegate.existsById(memberId);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        delegate.update(memberId, money);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        delegate.delete(memberId);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        delegate.saveAll(members);
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        delegate.updateAll(members);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        return delegate.findAllById(memberIds);
+    }
+
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        return delegate.findPageAfter(pageToken, limit);
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        return delegate.saveOrUpdate(member);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        return delegate.insertIfAbsent(member);
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        return delegate.adjustBalance(memberId, delta, minBalance);
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        return delegate.adjustAll(deltas, minBalance);
+    }
+
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        return delegate.transfer(fromId, toId, money);
+    }
+}
@@ -0,0 +1,143 @@
+package thespeace.jdbc.repository;
+
+import thespeace.jdbc.domain.Member;
+
+import java.util.*;
+
+/**
+ * <h1>트랜잭션 범위 1차 캐시</h1>
+ * {@code MemberServiceV4.accountTransfer}처럼 하나의 트랜잭션 안에서 같은 회원을 여러 번 조회하면 매번 쿼리가 실행된다.
+ * 이 리포지토리는 트랜잭션 안에서 처음 조회한 Member 를 {@link MemberIdentityMap}에 보관하고,
+ * 이후 조회는 DB 에 가지 않고 같은 인스턴스를 반환한다.
+ * <ul>
+ *     <li>트랜잭션이 끝나면(커밋/롤백 모두) 버린다. 트랜잭션 밖의 조회는 그대로 delegate 에 위임한다.</li>
+ *     <li>update, saveOrUpdate, transfer 는 보관 중인 인스턴스의 잔액도 변경한다. 같은 트랜잭션의 이후 조회는 변경된 잔액을 본다.</li>
+ *     <li>adjustBalance, adjustAll 은 변경 후 잔액을 알 수 없으므로 보관 중인 인스턴스를 버린다. delete 도 버린다.</li>
+ *     <li>한 번 읽은 회원은 다른 트랜잭션이 커밋해도 트랜잭션이 끝날 때까지 처음 읽은 값을 본다. (repeatable read)</li>
+ * </ul>
+ * 트랜잭션마다 새로 만들어지는 캐시이므로 {@link CachingMemberRepository}와 달리 복사본이 아니라 같은 인스턴스를 반환한다.
+ */
+public class IdentityMapMemberRepository extends ForwardingMemberRepository {
+
+    private final MemberIdentityMap identityMap = new MemberIdentityMap();
+
+    public IdentityMapMemberRepository(MemberRepository delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        Member member = identityMap.get(memberId);
+        if (member == null) {
+            member = delegate.findById(memberId);
+            identityMap.put(member);
+        }
+        return member;
+    }
+
+    /**
+     * 잠금은 DB 에서 걸어야 하므로 항상 delegate 로 조회한다. 잠근 시점의 잔액으로 보관 중인 인스턴스를 갱신한다.
+     */
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        Member locked = delegate.findByIdForUpdate(memberId);
+        Member member = identityMap.get(memberId);
+        if (member == null) {
+            identityMap.put(locked);
+            return locked;
+        }
+        member.setMoney(locked.getMoney());
+        member.setVersion(locked.getVersion());
+        return member;
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        Member member = identityMap.get(memberId);
+        if (member != null) {
+            return Optional.of(member);
+        }
+        Optional<Member> found = delegate.findOptionalById(memberId);
+        found.ifPresent(identityMap::put);
+        return found;
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return identityMap.get(memberId) != null || delegate.existsById(memberId);
+    }
+
+    /**
+     * 보관 중인 회원은 빼고 나머지만 delegate 에서 조회한다.
+     */
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        List<String> unknownIds = new ArrayList<>();
+        for (String memberId : memberIds) {
+            Member member = identityMap.get(memberId);
+            if (member != null) {
+                result.put(memberId, member);
+            } else {
+                unknownIds.add(memberId);
+            }
+        }
+        if (!unknownIds.isEmpty()) {
+            Map<String, Member> found = delegate.findAllById(unknownIds);
+            found.values().forEach(identityMap::put);
+            result.putAll(found);
+        }
+        return result;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        delegate.update(memberId, money);
+        identityMap.updateMoney(memberId, money);
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        delegate.updateAll(members);
+        members.forEach(member -> identityMap.updateMoney(member.getMemberId(), member.getMoney()));
+    }
+
+    @Override
+    public void delete(String memberId) {
+        delegate.delete(memberId);
+        identityMap.remove(memberId);
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        boolean inserted = delegate.saveOrUpdate(member);
+        identityMap.updateMoney(member.getMemberId(), member.getMoney());
+        return inserted;
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        boolean adjusted = delegate.adjustBalance(memberId, delta, minBalance);
+        if (adjusted) {
+            identityMap.remove(memberId);
+        }
+        return adjusted;
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        int applied = delegate.adjustAll(deltas, minBalance);
+        deltas.keySet().forEach(identityMap::remove);
+        return applied;
+    }
+
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        Optional<TransferResult> result = delegate.transfer(fromId, toId, money);
+        result.ifPresent(transferred -> {
+            identityMap.updateMoney(fromId, transferred.getFromMember().getMoney());
+            identityMap.updateMoney(toId, transferred.getToMember().getMoney());
+        });
+        return result;
+    }
+}
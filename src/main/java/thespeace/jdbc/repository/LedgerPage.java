@@ -0,0 +1,74 @@
+package thespeace.jdbc.repository;
+
+import lombok.Getter;
+import thespeace.jdbc.domain.LedgerEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * <h1>이체 원장 keyset 페이지</h1>
+ * {@link MemberPage}와 같은 방식이다. 원장은 (created_at, transfer_id) 순서로 정렬하므로
+ * 토큰에는 마지막 기록의 created_at 과 transfer_id 를 함께 담는다. 마지막 페이지면 {@code nextToken}은 {@code null}이다.
+ */
+@Getter
+public class LedgerPage {
+
+    private final List<LedgerEntry> entries;
+    private final String nextToken;
+
+    public LedgerPage(List<LedgerEntry> entries, String nextToken) {
+        this.entries = entries;
+        this.nextToken = nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    /**
+     * 다음 페이지 존재 여부를 알기 위해 limit + 1 건을 조회한 결과로 페이지를 만든다.
+     */
+    public static LedgerPage of(List<LedgerEntry> rows, int limit) {
+        if (rows.size() <= limit) {
+            return new LedgerPage(rows, null);
+        }
+        List<LedgerEntry> entries = rows.subList(0, limit);
+        return new LedgerPage(entries, encodeToken(entries.get(limit - 1)));
+    }
+
+    public static String encodeToken(LedgerEntry last) {
+        String position = last.getCreatedAt() + "/" + last.getTransferId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return 토큰에 담긴 마지막 위치, 첫 페이지 요청(토큰이 {@code null})이면 {@code null}
+     */
+    public static Position decodeToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = position.lastIndexOf('/');
+            return new Position(Instant.parse(position.substring(0, separator)), Long.parseLong(position.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid page token=" + token, e);
+        }
+    }
+
+    @Getter
+    public static class Position {
+
+        private final Instant createdAt;
+        private final long transferId;
+
+        public Position(Instant createdAt, long transferId) {
+            this.createdAt = createdAt;
+            this.transferId = transferId;
+        }
+    }
+}
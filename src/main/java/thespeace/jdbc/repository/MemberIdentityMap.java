@@ -0,0 +1,80 @@
+package thespeace.jdbc.repository;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import thespeace.jdbc.domain.Member;
+
+import java.util.HashMap;
+
+/**
+ * <h2>트랜잭션 범위 회원 식별자 맵(identity map, 1차 캐시)</h2>
+ * 조회한 Member 를 현재 트랜잭션의 리소스로 보관한다. 같은 트랜잭션 안에서 같은 id 를 다시 조회하면
+ * DB 에 가지 않고 같은 인스턴스를 반환한다. 트랜잭션이 끝나면(커밋/롤백 모두) 버린다.
+ * 트랜잭션 동기화가 활성화되어 있지 않으면 아무것도 보관하지 않는다.
+ */
+class MemberIdentityMap {
+
+    Member get(String memberId) {
+        Members members = (Members) TransactionSynchronizationManager.getResource(this);
+        return members == null ? null : members.get(memberId);
+    }
+
+    void put(Member member) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        Members members = (Members) TransactionSynchronizationManager.getResource(this);
+        if (members == null) {
+            members = new Members();
+            TransactionSynchronizationManager.bindResource(this, members);
+            TransactionSynchronizationManager.registerSynchronization(new MembersSynchronization(members));
+        }
+        members.put(member.getMemberId(), member);
+    }
+
+    /**
+     * 보관 중인 인스턴스의 잔액을 변경한다. 먼저 조회했던 쪽도 변경된 잔액을 보게 된다.
+     * 리포지토리가 잔액을 바꿀 때 version 을 1 올리므로 보관 중인 인스턴스의 version 도 1 올린다.
+     */
+    void updateMoney(String memberId, int money) {
+        Member member = get(memberId);
+        if (member != null) {
+            member.setMoney(money);
+            member.setVersion(member.getVersion() + 1);
+        }
+    }
+
+    void remove(String memberId) {
+        Members members = (Members) TransactionSynchronizationManager.getResource(this);
+        if (members != null) {
+            members.remove(memberId);
+        }
+    }
+
+    private static class Members extends HashMap<String, Member> {
+    }
+
+    private class MembersSynchronization implements TransactionSynchronization {
+
+        private final Members members;
+
+        MembersSynchronization(Members members) {
+            this.members = members;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(MemberIdentityMap.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(MemberIdentityMap.this, members);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(MemberIdentityMap.this);
+        }
+    }
+}
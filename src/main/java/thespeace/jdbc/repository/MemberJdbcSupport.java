@@ -0,0 +1,505 @@
+package thespeace.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import thespeace.jdbc.connection.PreparedStatementCache;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.ex.MyOptimisticLockException;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * <h1>순수 JDBC 리포지토리 공통 코드</h1>
+ * MemberRepositoryV4_1, MemberRepositoryV4_2 는 예외를 처리하는 방법만 다르다.(MyDbException 직접 변환 / 스프링 예외 변환기)
+ * 두 리포지토리에 추가된 메서드의 SQL, 파라미터 바인딩, row 매핑, 배치 처리를 이 클래스에 모아서 한 곳에서만 관리한다.
+ * SQL 은 JdbcTemplate 을 사용하는 MemberRepositoryV5 도 함께 사용한다.<br>
+ * 예외 변환은 생성자로 받은 {@link Translation}, {@link RowCountMismatch}에 맡긴다.
+ */
+@Slf4j
+class MemberJdbcSupport {
+
+    static final String FIND_BY_ID_FOR_UPDATE_SQL = "select * from member where member_id = ? for update";
+    static final String FIND_BY_ID_SQL = "select * from member where member_id = ?";
+    static final String EXISTS_BY_ID_SQL = "select 1 from member where member_id = ? limit 1";
+    static final String UPDATE_WITH_VERSION_SQL = "update member set money=?, version=version+1 where member_id=? and version=?";
+    static final String SAVE_OR_UPDATE_SQL = "select count(*) from old table (" +
+            " merge into member m using (values (cast(? as varchar(10)), cast(? as integer))) s(member_id, money)" +
+            " on m.member_id = s.member_id" +
+            " when matched then update set money = s.money, version = m.version + 1" +
+            " when not matched then insert (member_id, money) values (s.member_id, s.money))";
+    static final String INSERT_IF_ABSENT_SQL = "merge into member m using (values (cast(? as varchar(10)), cast(? as integer))) s(member_id, money)" +
+            " on m.member_id = s.member_id" +
+            " when not matched then insert (member_id, money) values (s.member_id, s.money)";
+    static final String ADJUST_BALANCE_SQL = "update member set money = money + ?, version = version + 1 where member_id = ? and money + ? >= ?";
+    /**
+     * 서브쿼리 조건은 문장 시작 시점의 값을 읽으므로 동시에 실행된 출금을 보지 못한다. 잔액이 부족하면 아무 row 도 수정하지 않는 빠른 판단에만 쓴다.
+     * 음수 잔액을 막는 조건은 {@code (member_id <> ? or money >= ?)}이다. update 가 row lock 을 잡은 뒤 그 row 의 현재 값으로 다시 평가한다.
+     * 동시 출금으로 이 조건이 실패하면 입금 row 만 수정되므로, 반환 row 수가 2가 아니면 예외를 던져 트랜잭션을 롤백시켜야 한다.
+     */
+    static final String TRANSFER_SQL = "select member_id, money, version from final table (" +
+            " update member set money = case when member_id = ? then money - ? else money + ? end, version = version + 1" +
+            " where member_id in (?, ?)" +
+            " and (member_id <> ? or money >= ?)" +
+            " and (select count(*) from member where member_id in (?, ?)) = 2" +
+            " and (select money from member where member_id = ?) >= ?)";
+    static final String SAVE_ALL_SQL = "insert into member(member_id, money) values (?, ?)";
+    static final String UPDATE_ALL_SQL = "update member set money=?, version=version+1 where member_id=?";
+    static final String FIND_FIRST_PAGE_SQL = "select * from member order by member_id limit ?";
+    static final String FIND_PAGE_AFTER_SQL = "select * from member where member_id > ? order by member_id limit ?";
+
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final PreparedStatementCache statementCache;
+    private final Translation translation;
+    private final RowCountMismatch rowCountMismatch;
+
+    MemberJdbcSupport(DataSource dataSource, int batchSize, PreparedStatementCache statementCache,
+                      Translation translation, RowCountMismatch rowCountMismatch) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.statementCache = statementCache;
+        this.translation = translation;
+        this.rowCountMismatch = rowCountMismatch;
+    }
+
+    Member findByIdForUpdate(String memberId) {
+        String sql = FIND_BY_ID_FOR_UPDATE_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            pstmt.setString(1, memberId);
+
+            rs = pstmt.executeQuery();
+
+            if(rs.next()) {
+                return mapMember(rs);
+            } else {
+                throw new NoSuchElementException("member not found memberId=" + memberId);
+            }
+        } catch (SQLException e) {
+            throw translation.translate("findByIdForUpdate", sql, e);
+        } finally {
+            release(con, sql, pstmt, rs);
+        }
+    }
+
+    Optional<Member> findOptionalById(String memberId) {
+        String sql = FIND_BY_ID_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            pstmt.setString(1, memberId);
+
+            rs = pstmt.executeQuery();
+            return rs.next() ? Optional.of(mapMember(rs)) : Optional.empty();
+        } catch (SQLException e) {
+            throw translation.translate("findOptionalById", sql, e);
+        } finally {
+            release(con, sql, pstmt, rs);
+        }
+    }
+
+    boolean existsById(String memberId) {
+        String sql = EXISTS_BY_ID_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            pstmt.setString(1, memberId);
+
+            rs = pstmt.executeQuery();
+            return rs.next();
+        } catch (SQLException e) {
+            throw translation.translate("existsById", sql, e);
+        } finally {
+            release(con, sql, pstmt, rs);
+        }
+    }
+
+    /**
+     * 반영된 row 가 없으면 다른 트랜잭션이 먼저 수정한 것이다. 같은 트랜잭션에서 다시 시도해도 결과가 같으므로 예외를 던진다.
+     */
+    void updateWithVersion(String memberId, int money, long version) {
+        String sql = UPDATE_WITH_VERSION_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            pstmt.setInt(1, money);
+            pstmt.setString(2, memberId);
+            pstmt.setLong(3, version);
+            int resultSize = pstmt.executeUpdate();
+            log.info("resultSize={}", resultSize);
+            if (resultSize == 0) {
+                throw new MyOptimisticLockException("member was modified concurrently memberId=" + memberId + ", version=" + version);
+            }
+        } catch (SQLException e) {
+            throw translation.translate("updateWithVersion", sql, e);
+        } finally {
+            release(con, sql, pstmt, null);
+        }
+    }
+
+    /**
+     * {@code MERGE ... USING}으로 등록/수정을 한 문장에 처리한다. 수정할 때는 version 도 올린다.
+     * {@code OLD TABLE}은 MERGE 가 수정한 row 의 변경 전 값만 돌려주므로, 개수가 0이면 새로 등록된 것이다.
+     */
+    boolean saveOrUpdate(Member member) {
+        String sql = SAVE_OR_UPDATE_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            pstmt.setString(1, member.getMemberId());
+            pstmt.setInt(2, member.getMoney());
+            rs = pstmt.executeQuery();
+            rs.next();
+            return rs.getInt(1) == 0;
+        } catch (SQLException e) {
+            throw translation.translate("saveOrUpdate", sql, e);
+        } finally {
+            release(con, sql, pstmt, rs);
+        }
+    }
+
+    /**
+     * {@code WHEN NOT MATCHED} 절만 있는 MERGE 는 기존 row 가 있으면 아무것도 하지 않으므로 반영된 row 수로 등록 여부를 판단한다.
+     */
+    boolean insertIfAbsent(Member member) {
+        String sql = INSERT_IF_ABSENT_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            pstmt.setString(1, member.getMemberId());
+            pstmt.setInt(2, member.getMoney());
+            return pstmt.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw translation.translate("insertIfAbsent", sql, e);
+        } finally {
+            release(con, sql, pstmt, null);
+        }
+    }
+
+    boolean adjustBalance(String memberId, int delta, int minBalance) {
+        String sql = ADJUST_BALANCE_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            bindAdjustBalance(pstmt, memberId, delta, minBalance);
+            int resultSize = pstmt.executeUpdate();
+            log.info("resultSize={}", resultSize);
+            return resultSize == 1;
+        } catch (SQLException e) {
+            throw translation.translate("adjustBalance", sql, e);
+        } finally {
+            release(con, sql, pstmt, null);
+        }
+    }
+
+    /**
+     * H2 의 {@code final table}로 update 가 변경한 row 의 변경 후 값을 같은 문장에서 조회한다.
+     * 두 row 가 함께 수정되거나 하나도 수정되지 않아야 한다. 하나만 수정되었으면(동시에 회원이 삭제되었거나 다른 출금이 먼저 잔액을 줄인 경우)
+     * 예외를 던져서 트랜잭션을 롤백시킨다.
+     */
+    Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        TransferResult.checkArguments(fromId, toId, money);
+        String sql = TRANSFER_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            bindTransfer(pstmt, fromId, toId, money);
+
+            rs = pstmt.executeQuery();
+            List<Member> rows = new ArrayList<>(2);
+            while (rs.next()) {
+                rows.add(mapMember(rs));
+            }
+            log.info("resultSize={}", rows.size());
+            if (rows.isEmpty()) {
+                return Optional.empty();
+            }
+            if (rows.size() != 2) {
+                throw rowCountMismatch.create("transfer", sql, 2, rows.size());
+            }
+            return Optional.of(TransferResult.of(fromId, rows));
+        } catch (SQLException e) {
+            throw translation.translate("transfer", sql, e);
+        } finally {
+            release(con, sql, pstmt, rs);
+        }
+    }
+
+    void saveAll(Collection<Member> members) {
+        executeBatch("saveAll", SAVE_ALL_SQL, members, (pstmt, member) -> {
+            pstmt.setString(1, member.getMemberId());
+            pstmt.setInt(2, member.getMoney());
+        });
+    }
+
+    void updateAll(Collection<Member> members) {
+        executeBatch("updateAll", UPDATE_ALL_SQL, members, (pstmt, member) -> {
+            pstmt.setInt(1, member.getMoney());
+            pstmt.setString(2, member.getMemberId());
+        });
+    }
+
+    int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        return executeBatch("adjustAll", ADJUST_BALANCE_SQL, deltas.entrySet(),
+                (pstmt, entry) -> bindAdjustBalance(pstmt, entry.getKey(), entry.getValue(), minBalance));
+    }
+
+    Map<String, Member> findAllById(Collection<String> memberIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(memberIds)); //중복 id 제거
+        Map<String, Member> result = new HashMap<>();
+        if (ids.isEmpty()) {
+            return result;
+        }
+
+        String sql = null;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            for (int from = 0; from < ids.size(); from += MemberRepository.IN_LIST_SIZE) {
+                List<String> chunk = ids.subList(from, Math.min(from + MemberRepository.IN_LIST_SIZE, ids.size()));
+                sql = findAllByIdSql(chunk.size());
+                pstmt = con.prepareStatement(sql);
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setString(i + 1, chunk.get(i));
+                }
+
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    Member member = mapMember(rs);
+                    result.put(member.getMemberId(), member);
+                }
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(pstmt);
+                rs = null;
+                pstmt = null;
+            }
+        } catch (SQLException e) {
+            throw translation.translate("findAllById", sql, e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+
+        logMissing(ids, result);
+        return result;
+    }
+
+    MemberPage findPageAfter(String pageToken, int limit) {
+        MemberPage.checkLimit(limit);
+        String lastMemberId = MemberPage.decodeToken(pageToken);
+        String sql = lastMemberId == null ? FIND_FIRST_PAGE_SQL : FIND_PAGE_AFTER_SQL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = statementCache.prepare(con, sql);
+            int index = 1;
+            if (lastMemberId != null) {
+                pstmt.setString(index++, lastMemberId);
+            }
+            pstmt.setInt(index, limit + 1); //다음 페이지 존재 여부 확인용으로 1건 더 조회
+
+            rs = pstmt.executeQuery();
+            List<Member> members = new ArrayList<>(limit + 1);
+            while (rs.next()) {
+                members.add(mapMember(rs));
+            }
+            return MemberPage.of(members, limit);
+        } catch (SQLException e) {
+            throw translation.translate("findPageAfter", sql, e);
+        } finally {
+            release(con, sql, pstmt, rs);
+        }
+    }
+
+    static Member mapMember(ResultSet rs) throws SQLException {
+        Member member = new Member();
+        member.setMemberId(rs.getString("member_id"));
+        member.setMoney(rs.getInt("money"));
+        member.setVersion(rs.getLong("version"));
+        return member;
+    }
+
+    static void bindAdjustBalance(PreparedStatement pstmt, String memberId, int delta, int minBalance) throws SQLException {
+        pstmt.setInt(1, delta);
+        pstmt.setString(2, memberId);
+        pstmt.setInt(3, delta);
+        pstmt.setInt(4, minBalance);
+    }
+
+    static void bindTransfer(PreparedStatement pstmt, String fromId, String toId, int money) throws SQLException {
+        pstmt.setString(1, fromId);
+        pstmt.setInt(2, money);
+        pstmt.setInt(3, money);
+        pstmt.setString(4, fromId);
+        pstmt.setString(5, toId);
+        pstmt.setString(6, fromId);
+        pstmt.setInt(7, money);
+        pstmt.setString(8, fromId);
+        pstmt.setString(9, toId);
+        pstmt.setString(10, fromId);
+        pstmt.setInt(11, money);
+    }
+
+    static String findAllByIdSql(int size) {
+        return "select * from member where member_id in (" + String.join(", ", Collections.nCopies(size, "?")) + ")";
+    }
+
+    static void logMissing(List<String> memberIds, Map<String, Member> found) {
+        if (found.size() < memberIds.size()) {
+            List<String> missing = memberIds.stream().filter(id -> !found.containsKey(id)).toList();
+            log.info("member not found memberIds={}", missing);
+        }
+    }
+
+    /**
+     * 배치 결과에서 반영된 row 수를 센다. 드라이버가 row 수를 알려주지 않으면({@code SUCCESS_NO_INFO}) 반영된 것으로 본다.
+     */
+    static int countApplied(int[] updateCounts) {
+        int applied = 0;
+        for (int updateCount : updateCounts) {
+            if (updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * items 를 batchSize 단위(chunk)로 executeBatch 한다.
+     *
+     * @return 반영된 row 수
+     */
+    private <T> int executeBatch(String task, String sql, Iterable<T> items, Binder<T> binder) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            int applied = 0;
+            int pending = 0;
+            int chunk = 0;
+            for (T item : items) {
+                binder.bind(pstmt, item);
+                pstmt.addBatch();
+                if (++pending == batchSize) {
+                    applied += countApplied(executeChunk(pstmt, task, sql, chunk++));
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                applied += countApplied(executeChunk(pstmt, task, sql, chunk));
+            }
+            return applied;
+        } catch (SQLException e) {
+            throw translation.translate(task, sql, e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    /**
+     * 배치에 쌓인 chunk 하나를 전송한다. 실패한 chunk 번호를 예외에 남겨서 어디까지 반영되었는지 확인할 수 있게 한다.
+     */
+    private int[] executeChunk(PreparedStatement pstmt, String task, String sql, int chunk) {
+        try {
+            int[] resultSizes = pstmt.executeBatch();
+            log.info("chunk={}, resultSize={}", chunk, resultSizes.length);
+            return resultSizes;
+        } catch (SQLException e) {
+            throw translation.translate(task + " chunk=" + chunk, sql, e);
+        }
+    }
+
+    /**
+     * statementCache 에서 꺼낸 statement 는 닫지 않고 캐시에 돌려준다.
+     */
+    private void release(Connection con, String sql, PreparedStatement pstmt, ResultSet rs) {
+        JdbcUtils.closeResultSet(rs);
+        statementCache.release(sql, pstmt);
+        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils를 사용해야 한다.
+        DataSourceUtils.releaseConnection(con, dataSource);
+    }
+
+    private void close(Connection con, Statement stmt, ResultSet rs) {
+        JdbcUtils.closeResultSet(rs);
+        JdbcUtils.closeStatement(stmt);
+        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils를 사용해야 한다.
+        DataSourceUtils.releaseConnection(con, dataSource);
+    }
+
+    private Connection getConnection() throws SQLException {
+        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils를 사용해야 한다.
+        Connection con = DataSourceUtils.getConnection(dataSource);
+        log.info("get connection={}, class={}", con, con.getClass());
+        return con;
+    }
+
+    /**
+     * SQLException 을 리포지토리가 던질 런타임 예외로 변환한다.
+     */
+    interface Translation {
+        RuntimeException translate(String task, String sql, SQLException e);
+    }
+
+    /**
+     * 반영되어야 할 row 수와 실제 반영된 row 수가 다를 때 던질 예외를 만든다.
+     */
+    interface RowCountMismatch {
+        RuntimeException create(String task, String sql, int expected, int actual);
+    }
+
+    private interface Binder<T> {
+        void bind(PreparedStatement pstmt, T item) throws SQLException;
+    }
+}
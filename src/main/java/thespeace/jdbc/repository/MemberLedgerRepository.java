@@ -0,0 +1,230 @@
+package thespeace.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import thespeace.jdbc.domain.LedgerEntry;
+import thespeace.jdbc.domain.Transfer;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * <h1>이체 원장(ledger)</h1>
+ * member.money 를 이체마다 직접 수정하면 받는 회원의 row 가 쓰기 경합 지점이 되고, 이체 이력도 남지 않는다.
+ * 이 리포지토리는 이체를 원장에 추가(append)만 하고, 잔액은 스냅샷과 그 이후의 증감액을 더해서 계산한다.
+ * <blockquote><pre>
+ * drop table member_transfer if exists;
+ * create table member_transfer (
+ *     transfer_id bigint generated by default as identity primary key,
+ *     from_id varchar(10) not null,
+ *     to_id varchar(10) not null,
+ *     amount integer not null,
+ *     created_at timestamp(9) not null
+ * );
+ * create index member_transfer_from_idx on member_transfer(from_id, created_at, transfer_id);
+ * create index member_transfer_to_idx on member_transfer(to_id, created_at, transfer_id);
+ *
+ * drop table member_balance_delta if exists;
+ * create table member_balance_delta (
+ *     delta_id bigint generated by default as identity primary key,
+ *     member_id varchar(10) not null,
+ *     amount bigint not null,
+ *     foreign key (member_id) references member(member_id)
+ * );
+ * create index member_balance_delta_member_idx on member_balance_delta(member_id);
+ * </pre></blockquote>
+ *
+ * <h2>잔액 = member.money(스냅샷) + sum(member_balance_delta.amount)</h2>
+ * <ul>
+ *     <li>member_transfer: 이체 이력. insert 만 한다. 기간 조회는 (회원, created_at, transfer_id) 인덱스의 keyset 페이지로 한다.</li>
+ *     <li>member_balance_delta: 아직 스냅샷에 반영되지 않은 증감액. 이체 묶음마다 회원별 순 증감액 한 row 씩 추가한다.</li>
+ *     <li>{@link #compact(int)}가 증감액을 chunk 단위로 삭제하면서 member.money 에 더한다.
+ *         삭제한 row 만 더하므로 아직 커밋되지 않은 증감액(compact 에서 보이지 않는 row)은 다음 compact 에서 반영된다.
+ *         "마지막으로 반영한 id" 같은 기준값을 쓰면 id 순서와 커밋 순서가 달라서 증감액을 빠뜨릴 수 있다.</li>
+ *     <li>잔액은 스냅샷과 증감액을 한 문장으로 읽는다. compact 가 두 테이블을 함께 커밋하므로 중간 상태가 보이지 않는다.</li>
+ *     <li>회원을 삭제할 때는 같은 트랜잭션에서 {@link #deleteDeltas(String)}를 먼저 호출해야 한다. (외래 키가 순서를 강제한다)</li>
+ * </ul>
+ * member.money 는 스냅샷이므로 {@link MemberRepository#findById(String)}로 읽은 잔액에는 아직 반영되지 않은 이체가 빠져 있다.
+ */
+@Slf4j
+public class MemberLedgerRepository {
+
+    private final JdbcTemplate template;
+    private final int batchSize;
+
+    public MemberLedgerRepository(DataSource dataSource) {
+        this(dataSource, MemberRepository.DEFAULT_BATCH_SIZE);
+    }
+
+    public MemberLedgerRepository(DataSource dataSource, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.template = new JdbcTemplate(dataSource);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * <h2>원장 추가</h2>
+     * 이체 기록과 회원별 증감액을 각각 JDBC 배치로 insert 한다. 잔액 검사는 호출하는 쪽의 책임이다.
+     *
+     * @param deltas 회원별 순 증감액, 0 인 회원은 넣지 않는다.
+     */
+    public void append(List<Transfer> transfers, Map<String, Long> deltas, Instant createdAt) {
+        Timestamp timestamp = Timestamp.from(createdAt);
+        String transferSql = "insert into member_transfer(from_id, to_id, amount, created_at) values (?, ?, ?, ?)";
+        template.batchUpdate(transferSql, transfers, batchSize, (ps, transfer) -> {
+            ps.setString(1, transfer.getFromId());
+            ps.setString(2, transfer.getToId());
+            ps.setInt(3, transfer.getMoney());
+            ps.setTimestamp(4, timestamp);
+        });
+
+        insertDeltas(deltas.entrySet());
+    }
+
+    /**
+     * <h2>잔액 조회</h2>
+     * 스냅샷과 아직 반영되지 않은 증감액의 합. 회원이 없으면 {@code Optional.empty()}
+     */
+    public Optional<Long> findBalance(String memberId) {
+        String sql = "select m.money + coalesce((select sum(d.amount) from member_balance_delta d where d.member_id = m.member_id), 0)" +
+                " from member m where m.member_id = ?";
+        return template.queryForList(sql, Long.class, memberId).stream().findFirst();
+    }
+
+    /**
+     * <h2>잠금 잔액 조회</h2>
+     * member row 를 {@code select ... for update}로 잠근 뒤 잔액을 계산한다. 같은 회원의 출금은 이 트랜잭션이 끝날 때까지 기다린다.
+     * 입금은 member row 를 잠그지 않으므로 기다리지 않는다. (잠근 뒤 들어온 입금은 잔액을 늘리기만 한다)
+     */
+    public Optional<Long> findBalanceForUpdate(String memberId) {
+        String lockSql = "select member_id from member where member_id = ? for update";
+        if (template.queryForList(lockSql, String.class, memberId).isEmpty()) {
+            return Optional.empty();
+        }
+        return findBalance(memberId);
+    }
+
+    /**
+     * <h2>기간 이체 조회</h2>
+     * memberId 가 보내거나 받은 이체 중 created_at 이 [from, to) 인 것을 (created_at, transfer_id) 순서로 최대 limit 건 조회한다.
+     * 보낸 쪽, 받은 쪽 인덱스를 각각 keyset 으로 limit + 1 건씩 읽고 합친다. 페이지 깊이와 무관하게 인덱스 탐색 두 번이다.
+     *
+     * @param pageToken 이전 페이지의 {@link LedgerPage#getNextToken()}, 첫 페이지는 {@code null}
+     */
+    public LedgerPage findTransfers(String memberId, Instant from, Instant to, String pageToken, int limit) {
+        MemberPage.checkLimit(limit);
+        LedgerPage.Position position = LedgerPage.decodeToken(pageToken);
+        Timestamp afterCreatedAt = Timestamp.from(position == null ? from : position.getCreatedAt());
+        long afterTransferId = position == null ? Long.MIN_VALUE : position.getTransferId();
+        Timestamp until = Timestamp.from(to);
+
+        String sql = "select * from (" +
+                " (select * from member_transfer where from_id = ? and created_at >= ? and created_at < ?" +
+                "  and (created_at > ? or transfer_id > ?) order by created_at, transfer_id limit ?)" +
+                " union all" +
+                " (select * from member_transfer where to_id = ? and created_at >= ? and created_at < ?" +
+                "  and (created_at > ? or transfer_id > ?) order by created_at, transfer_id limit ?)" +
+                ") t order by created_at, transfer_id limit ?";
+        List<LedgerEntry> rows = template.query(sql, ledgerEntryRowMapper(),
+                memberId, afterCreatedAt, until, afterCreatedAt, afterTransferId, limit + 1,
+                memberId, afterCreatedAt, until, afterCreatedAt, afterTransferId, limit + 1,
+                limit + 1);
+        return LedgerPage.of(rows, limit);
+    }
+
+    /**
+     * <h2>증감액 반영(compaction)</h2>
+     * 가장 오래된 증감액 chunkSize 건을 삭제하고, 회원별 합계를 member.money 에 더한다.
+     * 삭제와 반영이 함께 커밋되어야 하므로 트랜잭션 안에서 호출해야 한다.
+     * member row lock 은 member_id 순서로 잡는다.
+     * <ul>
+     *     <li>합계는 bigint 로 바인딩해서 DB 에서 더한다. chunk 합계가 integer 범위를 넘어도 반영한 잔액이 범위 안이면 그대로 반영된다.</li>
+     *     <li>잔액이 integer 범위를 넘어 반영하지 못한 회원은 삭제한 증감액의 합계를 한 row 로 다시 추가한다.
+     *         새 delta_id 를 받으므로 큐의 맨 뒤로 가고, 다른 회원의 반영은 막히지 않는다.
+     *         (chunk 전체를 롤백하면 같은 chunk 가 계속 실패해서 뒤의 증감액이 영원히 쌓인다)
+     *         출금으로 범위 안에 들어오면 다음 compact 에서 반영된다.</li>
+     * </ul>
+     *
+     * @return 반영한 증감액 row 수, chunkSize 보다 작으면 남은 증감액이 없거나 반영할 수 없는 증감액만 남았다.
+     */
+    public int compact(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        String boundarySql = "select max(delta_id), count(*) from" +
+                " (select delta_id from member_balance_delta order by delta_id limit ?) t";
+        long[] boundary = template.queryForObject(boundarySql, (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)}, chunkSize);
+        if (boundary == null || boundary[1] == 0) {
+            return 0;
+        }
+
+        String drainSql = "select member_id, sum(amount), count(*) from old table (" +
+                " delete from member_balance_delta where delta_id <= ?) group by member_id";
+        Map<String, Long> deltas = new TreeMap<>();
+        Map<String, Integer> rowCounts = new HashMap<>();
+        template.query(drainSql, rs -> {
+            deltas.put(rs.getString(1), rs.getLong(2));
+            rowCounts.put(rs.getString(1), rs.getInt(3));
+        }, boundary[0]);
+
+        String sql = "update member set money = money + ?, version = version + 1" +
+                " where member_id = ? and money + ? between ? and ?";
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(deltas.entrySet());
+        int[][] updateCounts = template.batchUpdate(sql, entries, batchSize, (ps, entry) -> {
+            ps.setLong(1, entry.getValue());
+            ps.setString(2, entry.getKey());
+            ps.setLong(3, entry.getValue());
+            ps.setInt(4, Integer.MIN_VALUE);
+            ps.setInt(5, Integer.MAX_VALUE);
+        });
+        List<Map.Entry<String, Long>> unapplied = new ArrayList<>();
+        int appliedRows = 0;
+        int index = 0;
+        for (int[] chunk : updateCounts) {
+            for (int updateCount : chunk) {
+                Map.Entry<String, Long> entry = entries.get(index++);
+                if (updateCount == 0) {
+                    unapplied.add(entry);
+                } else {
+                    appliedRows += rowCounts.get(entry.getKey());
+                }
+            }
+        }
+        if (!unapplied.isEmpty()) {
+            //회원이 없으면 외래 키 때문에 실패하고 chunk 전체가 롤백된다.
+            insertDeltas(unapplied);
+            log.warn("ledger deltas requeued (money out of integer range) deltas={}", unapplied);
+        }
+        return appliedRows;
+    }
+
+    /**
+     * 회원을 삭제하기 전에 반영되지 않은 증감액을 지운다. 원장 이력은 남긴다.
+     * 회원 삭제와 같은 트랜잭션에서 호출한다. 그 사이 다른 트랜잭션이 증감액을 추가하면 외래 키 때문에 회원 삭제가 실패한다.
+     */
+    public void deleteDeltas(String memberId) {
+        template.update("delete from member_balance_delta where member_id = ?", memberId);
+    }
+
+    private void insertDeltas(Collection<Map.Entry<String, Long>> deltas) {
+        String sql = "insert into member_balance_delta(member_id, amount) values (?, ?)";
+        template.batchUpdate(sql, deltas, batchSize, (ps, entry) -> {
+            ps.setString(1, entry.getKey());
+            ps.setLong(2, entry.getValue());
+        });
+    }
+
+    private RowMapper<LedgerEntry> ledgerEntryRowMapper() {
+        return (rs, rowNum) -> new LedgerEntry(
+                rs.getLong("transfer_id"),
+                rs.getString("from_id"),
+                rs.getString("to_id"),
+                rs.getInt("amount"),
+                rs.getTimestamp("created_at").toInstant());
+    }
+}
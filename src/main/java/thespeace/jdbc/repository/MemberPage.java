@@ -0,0 +1,68 @@
+package thespeace.jdbc.repository;
+
+import lombok.Getter;
+import thespeace.jdbc.domain.Member;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * <h1>keyset(seek) 페이지</h1>
+ * OFFSET 방식은 앞 페이지의 row 를 모두 읽고 버리기 때문에 페이지가 깊어질수록 느려진다.
+ * keyset 방식은 이전 페이지의 마지막 member_id 다음부터 PK 인덱스를 탐색하므로, 몇 번째 페이지든 비용이 같다.<br><br>
+ *
+ * 다음 페이지 위치는 {@code nextToken}으로 전달한다. 토큰은 마지막 member_id 를 인코딩한 값이지만 호출하는 쪽은
+ * 내용을 해석하지 말고 그대로 다음 findPageAfter() 호출에 넘겨야 한다. 마지막 페이지면 {@code null}이다.
+ */
+@Getter
+public class MemberPage {
+
+    private final List<Member> members;
+    private final String nextToken;
+
+    public MemberPage(List<Member> members, String nextToken) {
+        this.members = members;
+        this.nextToken = nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    /**
+     * 다음 페이지 존재 여부를 알기 위해 limit + 1 건을 조회한 결과로 페이지를 만든다.
+     */
+    public static MemberPage of(List<Member> rows, int limit) {
+        if (rows.size() <= limit) {
+            return new MemberPage(rows, null);
+        }
+        List<Member> members = rows.subList(0, limit);
+        return new MemberPage(members, encodeToken(members.get(limit - 1).getMemberId()));
+    }
+
+    public static String encodeToken(String lastMemberId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(lastMemberId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return 토큰에 담긴 마지막 member_id, 첫 페이지 요청(토큰이 {@code null})이면 {@code null}
+     */
+    public static String decodeToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid page token=" + token, e);
+        }
+    }
+
+    public static void checkLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+    }
+}
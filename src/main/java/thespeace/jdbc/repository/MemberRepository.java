@@ -2,9 +2,127 @@ package thespeace.jdbc.repository;
 
 import thespeace.jdbc.domain.Member;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
 public interface MemberRepository {
+
+    /**
+     * saveAll()에서 한 번의 executeBatch 로 전송하는 기본 row 수
+     */
+    int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * findAllById()에서 IN 절 하나에 담는 최대 id 수
+     */
+    int IN_LIST_SIZE = 500;
+
     Member save(Member member);
     Member findById(String memberId);
+
+    /**
+     * <h2>잠금 조회</h2>
+     * {@code select ... for update}로 조회한 row 에 트랜잭션이 끝날 때까지 유지되는 row lock 을 건다.
+     * 다른 트랜잭션의 같은 row 변경과 잠금 조회는 이 트랜잭션이 끝날 때까지 기다린다. 트랜잭션 안에서 호출해야 의미가 있다.<br>
+     * 여러 row 를 잠글 때는 모든 트랜잭션이 같은 순서(member_id 순서)로 잠가야 교착 상태(deadlock)가 생기지 않는다.
+     * 회원이 없으면 findById 와 같은 예외를 던진다.
+     */
+    Member findByIdForUpdate(String memberId);
     void update(String memberId, int money);
+
     void delete(String memberId);
+
+    /**
+     * <h2>예외 없는 단건 조회</h2>
+     * findById 와 같지만 회원이 없으면 예외 대신 {@code Optional.empty()}를 반환한다.
+     * 없는 회원 조회가 자주 일어나는 곳에서는 예외 생성, 스택 트레이스, 예외 변환 비용이 들지 않는 이 메서드를 사용한다.
+     */
+    Optional<Member> findOptionalById(String memberId);
+
+    /**
+     * <h2>존재 여부 확인</h2>
+     * {@code select 1 ... limit 1}로 컬럼을 읽지 않고 존재 여부만 확인한다. 없어도 예외를 던지지 않는다.
+     */
+    boolean existsById(String memberId);
+
+    /**
+     * <h2>대량 등록</h2>
+     * 여러 회원을 JDBC 배치로 묶어서 등록한다. 배치 크기 단위(chunk)로 executeBatch 를 호출하므로
+     * row 마다 DB 왕복이 발생하지 않는다.<br>
+     * 트랜잭션 없이 호출하면 chunk 단위로 커밋되고, 트랜잭션 안에서 호출하면 전체가 함께 커밋/롤백된다.
+     */
+    void saveAll(Collection<Member> members);
+
+    /**
+     * <h2>대량 잔액 수정</h2>
+     * 여러 회원의 잔액을 JDBC 배치로 묶어서 수정한다. 없는 회원은 아무것도 하지 않는다. (update 와 같다)<br>
+     * 여러 트랜잭션이 같은 회원들을 수정할 때 row lock 을 같은 순서로 잡도록, 호출하는 쪽에서 member_id 순서로 정렬해서 넘기는 것이 좋다.
+     */
+    void updateAll(Collection<Member> members);
+
+    /**
+     * <h2>다건 조회</h2>
+     * id 목록을 IN_LIST_SIZE 단위로 나누어 {@code where member_id in (?, ?, ...)} 으로 조회한다.
+     * id 마다 findById 를 호출할 때와 달리 chunk 하나당 한 번의 왕복으로 끝난다.<br>
+     * 존재하지 않는 id 는 예외를 던지지 않고 결과에서 빠진다. 요청한 id 중 keySet 에 없는 것이 누락된 id 다.
+     */
+    Map<String, Member> findAllById(Collection<String> memberIds);
+
+    /**
+     * <h2>keyset 페이지 조회</h2>
+     * member_id 순서로 pageToken 다음 회원을 최대 limit 건 조회한다.
+     * {@code where member_id > ? order by member_id limit ?} 형태라 페이지 깊이와 무관하게 PK 인덱스 탐색 한 번이면 된다.
+     *
+     * @param pageToken 이전 페이지의 {@link MemberPage#getNextToken()}, 첫 페이지는 {@code null}
+     */
+    MemberPage findPageAfter(String pageToken, int limit);
+
+    /**
+     * <h2>등록 또는 잔액 수정(upsert)</h2>
+     * 회원이 없으면 등록하고, 있으면 잔액을 덮어쓴다. 한 번의 MERGE 문으로 처리되므로
+     * 키 중복 예외를 잡고 다시 시도하는 왕복이 없다.
+     *
+     * @return 새로 등록했으면 {@code true}, 기존 회원을 수정했으면 {@code false}
+     */
+    boolean saveOrUpdate(Member member);
+
+    /**
+     * <h2>없을 때만 등록</h2>
+     * 같은 id 의 회원이 이미 있으면 아무것도 하지 않는다. 키 중복 예외를 던지지 않는다.
+     *
+     * @return 등록했으면 {@code true}, 이미 있었으면 {@code false}
+     */
+    boolean insertIfAbsent(Member member);
+
+    /**
+     * <h2>조건부 잔액 증감</h2>
+     * {@code money = money + delta}를 한 문장으로 처리한다. 조회 후 계산한 값을 다시 쓰는 방식과 달리
+     * 읽기와 쓰기 사이에 다른 트랜잭션의 변경을 덮어쓰지 않는다.<br>
+     * 변경 후 잔액이 minBalance 보다 작아지면 반영하지 않는다. (출금은 음수 delta, 입금은 양수 delta)
+     *
+     * @return 반영되었으면 {@code true}, 잔액 조건을 만족하지 못했거나 회원이 없으면 {@code false}
+     */
+    boolean adjustBalance(String memberId, int delta, int minBalance);
+
+    /**
+     * <h2>대량 조건부 잔액 증감</h2>
+     * adjustBalance 를 JDBC 배치로 묶어서 처리한다. {@code money = money + ?} 문장을 deltas 의 순서대로 배치에 쌓는다.<br>
+     * 잔액 조건을 만족하지 못했거나 회원이 없는 id 는 반영되지 않는다. 반환값이 {@code deltas.size()}보다 작으면
+     * 일부만 반영된 것이므로, 전부 반영되어야 하는 경우 호출하는 쪽에서 예외를 던져 트랜잭션을 롤백해야 한다.
+     *
+     * @return 반영된 회원 수
+     */
+    int adjustAll(Map<String, Integer> deltas, int minBalance);
+
+    /**
+     * <h2>이체</h2>
+     * fromId 의 잔액을 money 만큼 빼서 toId 에 더한다. 두 회원을 조회하고 각각 수정하는 대신(4번 왕복)
+     * {@code case} 로 두 row 를 함께 수정하는 update 한 문장으로 처리하고, 변경된 잔액을 같은 왕복에서 돌려받는다.<br>
+     * 두 회원이 모두 있고 fromId 의 잔액이 money 이상일 때만 반영한다. (잔액이 음수가 되지 않는다)<br>
+     * 동시에 실행된 다른 출금 때문에 한 row 만 수정되면 예외를 던진다. 입금만 반영된 상태가 커밋되지 않도록 트랜잭션 안에서 호출해야 한다.
+     *
+     * @return 변경 후 두 회원의 잔액, 회원이 없거나 잔액이 부족해서 반영하지 않았으면 {@code Optional.empty()}
+     */
+    Optional<TransferResult> transfer(String fromId, String toId, int money);
 }
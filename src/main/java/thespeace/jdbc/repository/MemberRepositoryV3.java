@@ -13,11 +13,16 @@ import java.util.NoSuchElementException;
  * <h1>트랜잭션 - 트랜잭션 매니저</h1>
  * DataSourceUtils.getConnection()
  * DataSourceUtils.releaseConnection()
+ * <p>
+ * <h2>트랜잭션 범위 1차 캐시</h2>
+ * 트랜잭션 안에서 조회한 회원은 {@link MemberIdentityMap}에 보관해서, 같은 트랜잭션의 반복 조회는 DB 에 가지 않는다.
+ * ({@code MemberServiceV3_x}의 {@code bizLogic}) 트랜잭션이 끝나면 버린다.
  */
 @Slf4j
 public class MemberRepositoryV3 {
 
     private final DataSource dataSource;
+    private final MemberIdentityMap identityMap = new MemberIdentityMap();
 
     public MemberRepositoryV3(DataSource dataSource) {
         this.dataSource = dataSource;
@@ -52,6 +57,10 @@ public class MemberRepositoryV3 {
      * <h2>JDBC 개발 - 조회</h2>
      */
     public Member findById(String memberId) throws SQLException {
+        Member cachedMember = identityMap.get(memberId);
+        if (cachedMember != null) {
+            return cachedMember;
+        }
 
         String sql = "select * from member where member_id = ?";
 
@@ -70,6 +79,7 @@ public class MemberRepositoryV3 {
                 Member member = new Member();
                 member.setMemberId(rs.getString("member_id"));
                 member.setMoney(rs.getInt("money"));
+                identityMap.put(member);
                 return member;
             } else {
                 throw new NoSuchElementException("member not found memberId=" + memberId);
@@ -98,6 +108,7 @@ public class MemberRepositoryV3 {
             pstmt.setString(2, memberId);
             int resultSize = pstmt.executeUpdate();
             log.info("resultSize={}", resultSize);
+            identityMap.updateMoney(memberId, money);
         } catch (SQLException e) {
             log.error("db error", e);
             throw e;
@@ -120,6 +131,7 @@ public class MemberRepositoryV3 {
             pstmt = con.prepareStatement(sql);
             pstmt.setString(1, memberId);
             pstmt.executeUpdate();
+            identityMap.remove(memberId);
         } catch (SQLException e) {
             log.error("db error", e);
             throw e;
@@ -3,12 +3,13 @@ package thespeace.jdbc.repository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.support.JdbcUtils;
+import thespeace.jdbc.connection.PreparedStatementCache;
 import thespeace.jdbc.domain.Member;
 import thespeace.jdbc.repository.ex.MyDbException;
 
 import javax.sql.DataSource;
 import java.sql.*;
-import java.util.NoSuchElementException;
+import java.util.*;
 
 /**
  * <h1>예외 누수 문제 해결</h1>
@@ -20,12 +21,30 @@ import java.util.NoSuchElementException;
  * </ul>
  */
 @Slf4j
-public class MemberRepositoryV4_1 implements MemberRepository{ //MemberRepository 인터페이스를 구현.
+public class MemberRepositoryV4_1 implements VersionedMemberRepository{ //MemberRepository 인터페이스를 구현.
 
     private final DataSource dataSource;
+    private final PreparedStatementCache statementCache;
+    private final MemberJdbcSupport jdbc;
 
     public MemberRepositoryV4_1(DataSource dataSource) {
+        this(dataSource, DEFAULT_BATCH_SIZE);
+    }
+
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize) {
+        this(dataSource, batchSize, new PreparedStatementCache(dataSource));
+    }
+
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize, PreparedStatementCache statementCache) {
         this.dataSource = dataSource;
+        this.statementCache = statementCache;
+        this.jdbc = new MemberJdbcSupport(dataSource, batchSize, statementCache,
+                (task, sql, e) -> new MyDbException(task + " failed", e),
+                (task, sql, expected, actual) -> new MyDbException(task + " updated " + actual + " row(s), expected " + expected));
+    }
+
+    public PreparedStatementCache getStatementCache() {
+        return statementCache;
     }
 
     @Override
@@ -38,7 +57,7 @@ public class MemberRepositoryV4_1 implements MemberRepository{ //MemberRepositor
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setString(1, member.getMemberId());
             pstmt.setInt(2, member.getMoney());
             pstmt.executeUpdate();
@@ -47,7 +66,7 @@ public class MemberRepositoryV4_1 implements MemberRepository{ //MemberRepositor
             //기존 예외를 생성자를 통해서 포함, 예외를 출력했을 때 스택 트레이스를 통해 둘 다 확인.
             throw new MyDbException(e);
         } finally {
-            close(con, pstmt, null);
+            release(con, sql, pstmt, null);
         }
     }
 
@@ -62,36 +81,48 @@ public class MemberRepositoryV4_1 implements MemberRepository{ //MemberRepositor
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setString(1, memberId);
 
             rs = pstmt.executeQuery();
 
             if(rs.next()) {
-                Member member = new Member();
-                member.setMemberId(rs.getString("member_id"));
-                member.setMoney(rs.getInt("money"));
-                return member;
+                return MemberJdbcSupport.mapMember(rs);
             } else {
                 throw new NoSuchElementException("member not found memberId=" + memberId);
             }
         } catch (SQLException e) {
             throw new MyDbException(e);
         } finally {
-            close(con, pstmt, rs);
+            release(con, sql, pstmt, rs);
         }
     }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return jdbc.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        return jdbc.findOptionalById(memberId);
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return jdbc.existsById(memberId);
+    }
+
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
 
         Connection con = null;
         PreparedStatement pstmt = null;
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setInt(1, money);
             pstmt.setString(2, memberId);
             int resultSize = pstmt.executeUpdate();
@@ -99,10 +130,15 @@ public class MemberRepositoryV4_1 implements MemberRepository{ //MemberRepositor
         } catch (SQLException e) {
             throw new MyDbException(e);
         } finally {
-            close(con, pstmt, null);
+            release(con, sql, pstmt, null);
         }
     }
 
+    @Override
+    public void updateWithVersion(String memberId, int money, long version) {
+        jdbc.updateWithVersion(memberId, money, version);
+    }
+
     @Override
     public void delete(String memberId) {
         String sql = "delete from member where member_id=?";
@@ -112,19 +148,67 @@ public class MemberRepositoryV4_1 implements MemberRepository{ //MemberRepositor
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setString(1, memberId);
             pstmt.executeUpdate();
         } catch (SQLException e) {
             throw new MyDbException(e);
         } finally {
-            close(con, pstmt, null);
+            release(con, sql, pstmt, null);
         }
     }
 
-    private void close(Connection con, Statement stmt, ResultSet rs) {
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        return jdbc.saveOrUpdate(member);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        return jdbc.insertIfAbsent(member);
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        return jdbc.adjustBalance(memberId, delta, minBalance);
+    }
+
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        return jdbc.transfer(fromId, toId, money);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        jdbc.saveAll(members);
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        jdbc.updateAll(members);
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        return jdbc.adjustAll(deltas, minBalance);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        return jdbc.findAllById(memberIds);
+    }
+
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        return jdbc.findPageAfter(pageToken, limit);
+    }
+
+    /**
+     * statementCache 에서 꺼낸 statement 는 닫지 않고 캐시에 돌려준다.
+     */
+    private void release(Connection con, String sql, PreparedStatement pstmt, ResultSet rs) {
         JdbcUtils.closeResultSet(rs);
-        JdbcUtils.closeStatement(stmt);
+        statementCache.release(sql, pstmt);
         //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils를 사용해야 한다.
         DataSourceUtils.releaseConnection(con, dataSource);
     }
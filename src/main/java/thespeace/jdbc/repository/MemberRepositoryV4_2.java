@@ -1,16 +1,20 @@
 package thespeace.jdbc.repository;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
+import thespeace.jdbc.connection.PreparedStatementCache;
 import thespeace.jdbc.domain.Member;
-import thespeace.jdbc.repository.ex.MyDbException;
 
 import javax.sql.DataSource;
 import java.sql.*;
-import java.util.NoSuchElementException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * <h1>SQLExceptionTranslator 추가</h1>
@@ -21,14 +25,36 @@ import java.util.NoSuchElementException;
  * 서비스 계층에 넘어오기 때문에 필요한 경우 예외를 잡아서 복구하면 된다.
  */
 @Slf4j
-public class MemberRepositoryV4_2 implements MemberRepository{
+public class MemberRepositoryV4_2 implements VersionedMemberRepository{
+
+    /**
+     * 스트림 조회시 드라이버가 한 번에 가져오는 row 수
+     */
+    private static final int STREAM_FETCH_SIZE = 500;
 
     private final DataSource dataSource;
     private final SQLExceptionTranslator exTranslator;
+    private final PreparedStatementCache statementCache;
+    private final MemberJdbcSupport jdbc;
 
     public MemberRepositoryV4_2(DataSource dataSource) {
+        this(dataSource, DEFAULT_BATCH_SIZE);
+    }
+
+    public MemberRepositoryV4_2(DataSource dataSource, int batchSize) {
+        this(dataSource, batchSize, new PreparedStatementCache(dataSource));
+    }
+
+    public MemberRepositoryV4_2(DataSource dataSource, int batchSize, PreparedStatementCache statementCache) {
         this.dataSource = dataSource;
         this.exTranslator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
+        this.statementCache = statementCache;
+        this.jdbc = new MemberJdbcSupport(dataSource, batchSize, statementCache, exTranslator::translate,
+                (task, sql, expected, actual) -> new JdbcUpdateAffectedIncorrectNumberOfRowsException(sql, expected, actual));
+    }
+
+    public PreparedStatementCache getStatementCache() {
+        return statementCache;
     }
 
     @Override
@@ -41,7 +67,7 @@ public class MemberRepositoryV4_2 implements MemberRepository{
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setString(1, member.getMemberId());
             pstmt.setInt(2, member.getMoney());
             pstmt.executeUpdate();
@@ -49,7 +75,7 @@ public class MemberRepositoryV4_2 implements MemberRepository{
         } catch (SQLException e) {
             throw exTranslator.translate("save", sql, e);
         } finally {
-            close(con, pstmt, null);
+            release(con, sql, pstmt, null);
         }
     }
 
@@ -64,36 +90,48 @@ public class MemberRepositoryV4_2 implements MemberRepository{
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setString(1, memberId);
 
             rs = pstmt.executeQuery();
 
             if(rs.next()) {
-                Member member = new Member();
-                member.setMemberId(rs.getString("member_id"));
-                member.setMoney(rs.getInt("money"));
-                return member;
+                return MemberJdbcSupport.mapMember(rs);
             } else {
                 throw new NoSuchElementException("member not found memberId=" + memberId);
             }
         } catch (SQLException e) {
             throw exTranslator.translate("findById", sql, e);
         } finally {
-            close(con, pstmt, rs);
+            release(con, sql, pstmt, rs);
         }
     }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return jdbc.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        return jdbc.findOptionalById(memberId);
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return jdbc.existsById(memberId);
+    }
+
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
 
         Connection con = null;
         PreparedStatement pstmt = null;
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setInt(1, money);
             pstmt.setString(2, memberId);
             int resultSize = pstmt.executeUpdate();
@@ -101,10 +139,15 @@ public class MemberRepositoryV4_2 implements MemberRepository{
         } catch (SQLException e) {
             throw exTranslator.translate("update", sql, e);
         } finally {
-            close(con, pstmt, null);
+            release(con, sql, pstmt, null);
         }
     }
 
+    @Override
+    public void updateWithVersion(String memberId, int money, long version) {
+        jdbc.updateWithVersion(memberId, money, version);
+    }
+
     @Override
     public void delete(String memberId) {
         String sql = "delete from member where member_id=?";
@@ -114,16 +157,132 @@ public class MemberRepositoryV4_2 implements MemberRepository{
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = statementCache.prepare(con, sql);
             pstmt.setString(1, memberId);
             pstmt.executeUpdate();
         } catch (SQLException e) {
             throw exTranslator.translate("delete", sql, e);
         } finally {
-            close(con, pstmt, null);
+            release(con, sql, pstmt, null);
         }
     }
 
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        return jdbc.saveOrUpdate(member);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        return jdbc.insertIfAbsent(member);
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        return jdbc.adjustBalance(memberId, delta, minBalance);
+    }
+
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        return jdbc.transfer(fromId, toId, money);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        jdbc.saveAll(members);
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        jdbc.updateAll(members);
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        return jdbc.adjustAll(deltas, minBalance);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        return jdbc.findAllById(memberIds);
+    }
+
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        return jdbc.findPageAfter(pageToken, limit);
+    }
+
+    /**
+     * <h2>전체 회원 스트림 조회</h2>
+     * 결과를 List 로 모으지 않고, forward-only 커서에서 fetchSize 만큼씩 읽어오며 row 를 하나씩 매핑한다.
+     * 따라서 테이블 크기와 무관하게 힙 사용량이 일정하다.<br>
+     * 커넥션은 스트림을 닫을 때 반환되므로 반드시 try-with-resources 로 사용해야 한다.
+     */
+    public Stream<Member> streamAll() {
+        String sql = "select * from member";
+        return stream("streamAll", sql);
+    }
+
+    /**
+     * <h2>잔액 범위 스트림 조회</h2>
+     * minMoney 이상 maxMoney 이하인 회원을 스트림으로 조회한다. 사용법은 streamAll()과 같다.
+     */
+    public Stream<Member> streamByMoneyRange(int minMoney, int maxMoney) {
+        String sql = "select * from member where money between ? and ?";
+        return stream("streamByMoneyRange", sql, minMoney, maxMoney);
+    }
+
+    private Stream<Member> stream(String task, String sql, int... params) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(STREAM_FETCH_SIZE);
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setInt(i + 1, params[i]);
+            }
+            rs = pstmt.executeQuery();
+        } catch (SQLException e) {
+            close(con, pstmt, rs);
+            throw exTranslator.translate(task, sql, e);
+        }
+
+        Connection streamCon = con;
+        PreparedStatement streamStmt = pstmt;
+        ResultSet streamRs = rs;
+        Spliterator<Member> spliterator = new Spliterators.AbstractSpliterator<>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Member> action) {
+                try {
+                    if (!streamRs.next()) {
+                        return false;
+                    }
+                    action.accept(MemberJdbcSupport.mapMember(streamRs)); //row 는 요청될 때 하나씩 매핑한다.
+                    return true;
+                } catch (SQLException e) {
+                    throw exTranslator.translate(task, sql, e);
+                }
+            }
+        };
+        //스트림을 닫을 때 ResultSet, Statement 를 닫고 DataSourceUtils 로 커넥션을 반환한다.
+        return StreamSupport.stream(spliterator, false)
+                .onClose(() -> close(streamCon, streamStmt, streamRs));
+    }
+
+    /**
+     * statementCache 에서 꺼낸 statement 는 닫지 않고 캐시에 돌려준다.
+     */
+    private void release(Connection con, String sql, PreparedStatement pstmt, ResultSet rs) {
+        JdbcUtils.closeResultSet(rs);
+        statementCache.release(sql, pstmt);
+        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils를 사용해야 한다.
+        DataSourceUtils.releaseConnection(con, dataSource);
+    }
+
     private void close(Connection con, Statement stmt, ResultSet rs) {
         JdbcUtils.closeResultSet(rs);
         JdbcUtils.closeStatement(stmt);
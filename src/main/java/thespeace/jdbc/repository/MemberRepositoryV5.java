@@ -1,11 +1,20 @@
 package thespeace.jdbc.repository;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.ex.MyOptimisticLockException;
 
 import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * <h1>JDBC 반복 문제 해결 - JdbcTemplate</h1>
@@ -32,12 +41,26 @@ import javax.sql.DataSource;
  * </ul>
  */
 @Slf4j
-public class MemberRepositoryV5 implements MemberRepository{
+public class MemberRepositoryV5 implements VersionedMemberRepository{
+
+    /**
+     * 스트림 조회시 드라이버가 한 번에 가져오는 row 수
+     */
+    private static final int STREAM_FETCH_SIZE = 500;
 
     private final JdbcTemplate template;
+    private final int batchSize;
 
     public MemberRepositoryV5(DataSource dataSource) {
+        this(dataSource, DEFAULT_BATCH_SIZE);
+    }
+
+    public MemberRepositoryV5(DataSource dataSource, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
         this.template = new JdbcTemplate(dataSource);
+        this.batchSize = batchSize;
     }
 
     @Override
@@ -53,25 +76,190 @@ public class MemberRepositoryV5 implements MemberRepository{
         return template.queryForObject(sql, memberRowMapper(), memberId);
     }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return template.queryForObject(MemberJdbcSupport.FIND_BY_ID_FOR_UPDATE_SQL, memberRowMapper(), memberId);
+    }
+
+
+    /**
+     * queryForObject 는 결과가 없으면 EmptyResultDataAccessException 을 던지므로, 목록 조회 후 첫 번째 row 를 꺼낸다.
+     */
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        return template.query(MemberJdbcSupport.FIND_BY_ID_SQL, memberRowMapper(), memberId).stream().findFirst();
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        Boolean exists = template.query(MemberJdbcSupport.EXISTS_BY_ID_SQL, (ResultSetExtractor<Boolean>) ResultSet::next, memberId);
+        return Boolean.TRUE.equals(exists);
+    }
 
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money=? where member_id=?";
+        String sql = "update member set money=?, version=version+1 where member_id=?";
         template.update(sql, money, memberId);
     }
 
+    /**
+     * 반영된 row 가 없으면 다른 트랜잭션이 먼저 수정한 것이다. JdbcTemplate 은 row 수를 검사하지 않으므로 직접 예외를 던진다.
+     */
+    @Override
+    public void updateWithVersion(String memberId, int money, long version) {
+        if (template.update(MemberJdbcSupport.UPDATE_WITH_VERSION_SQL, money, memberId, version) == 0) {
+            throw new MyOptimisticLockException("member was modified concurrently memberId=" + memberId + ", version=" + version);
+        }
+    }
+
     @Override
     public void delete(String memberId) {
         String sql = "delete from member where member_id=?";
         template.update(sql, memberId);
     }
 
+    /**
+     * {@code MERGE ... USING}으로 등록/수정을 한 문장에 처리한다. 수정할 때는 version 도 올린다.
+     * {@code OLD TABLE}은 MERGE 가 수정한 row 의 변경 전 값만 돌려주므로, 개수가 0이면 새로 등록된 것이다.
+     */
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        Integer updatedCount = template.queryForObject(MemberJdbcSupport.SAVE_OR_UPDATE_SQL, Integer.class,
+                member.getMemberId(), member.getMoney());
+        return updatedCount != null && updatedCount == 0;
+    }
+
+    /**
+     * {@code WHEN NOT MATCHED} 절만 있는 MERGE 는 기존 row 가 있으면 아무것도 하지 않으므로 반영된 row 수로 등록 여부를 판단한다.
+     */
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        return template.update(MemberJdbcSupport.INSERT_IF_ABSENT_SQL, member.getMemberId(), member.getMoney()) == 1;
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        return template.update(MemberJdbcSupport.ADJUST_BALANCE_SQL, delta, memberId, delta, minBalance) == 1;
+    }
+
+    /**
+     * H2 의 {@code final table}로 update 가 변경한 row 의 변경 후 값을 같은 문장에서 조회한다.
+     * 두 row 가 함께 수정되거나 하나도 수정되지 않아야 한다. 하나만 수정되었으면(동시에 회원이 삭제되었거나 다른 출금이 먼저 잔액을 줄인 경우)
+     * 예외를 던져서 트랜잭션을 롤백시킨다.
+     */
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        TransferResult.checkArguments(fromId, toId, money);
+        String sql = MemberJdbcSupport.TRANSFER_SQL;
+        List<Member> rows = template.query(sql, (PreparedStatementSetter) ps -> MemberJdbcSupport.bindTransfer(ps, fromId, toId, money), memberRowMapper());
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        if (rows.size() != 2) {
+            throw new JdbcUpdateAffectedIncorrectNumberOfRowsException(sql, 2, rows.size());
+        }
+        return Optional.of(TransferResult.of(fromId, rows));
+    }
+
+    /**
+     * JdbcTemplate.batchUpdate 가 batchSize 단위로 executeBatch 를 호출한다.
+     * 실패한 chunk 의 SQLException 은 JdbcTemplate 이 가진 예외 변환기를 통해 스프링 예외로 변환된다.
+     */
+    @Override
+    public void saveAll(Collection<Member> members) {
+        template.batchUpdate(MemberJdbcSupport.SAVE_ALL_SQL, members, batchSize, (ps, member) -> {
+            ps.setString(1, member.getMemberId());
+            ps.setInt(2, member.getMoney());
+        });
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        template.batchUpdate(MemberJdbcSupport.UPDATE_ALL_SQL, members, batchSize, (ps, member) -> {
+            ps.setInt(1, member.getMoney());
+            ps.setString(2, member.getMemberId());
+        });
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        int[][] updateCounts = template.batchUpdate(MemberJdbcSupport.ADJUST_BALANCE_SQL, deltas.entrySet(), batchSize,
+                (ps, entry) -> MemberJdbcSupport.bindAdjustBalance(ps, entry.getKey(), entry.getValue(), minBalance));
+        int applied = 0;
+        for (int[] chunk : updateCounts) {
+            applied += MemberJdbcSupport.countApplied(chunk);
+        }
+        return applied;
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(memberIds)); //중복 id 제거
+        Map<String, Member> result = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += IN_LIST_SIZE) {
+            List<String> chunk = ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size()));
+            String sql = MemberJdbcSupport.findAllByIdSql(chunk.size());
+            for (Member member : template.query(sql, memberRowMapper(), chunk.toArray())) {
+                result.put(member.getMemberId(), member);
+            }
+        }
+
+        MemberJdbcSupport.logMissing(ids, result);
+        return result;
+    }
+
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        MemberPage.checkLimit(limit);
+        String lastMemberId = MemberPage.decodeToken(pageToken);
+        List<Member> members;
+        if (lastMemberId == null) {
+            members = template.query(MemberJdbcSupport.FIND_FIRST_PAGE_SQL, memberRowMapper(), limit + 1);
+        } else {
+            members = template.query(MemberJdbcSupport.FIND_PAGE_AFTER_SQL, memberRowMapper(), lastMemberId, limit + 1);
+        }
+        return MemberPage.of(members, limit); //다음 페이지 존재 여부 확인용으로 1건 더 조회
+    }
+
+    /**
+     * <h2>전체 회원 스트림 조회</h2>
+     * 결과를 List 로 모으지 않고, forward-only 커서에서 fetchSize 만큼씩 읽어오며 row 를 하나씩 매핑한다.
+     * 따라서 테이블 크기와 무관하게 힙 사용량이 일정하다.<br>
+     * 커넥션은 스트림을 닫을 때 반환되므로 반드시 try-with-resources 로 사용해야 한다.
+     * <blockquote><pre>
+     * try (Stream&lt;Member&gt; members = repository.streamAll()) {
+     *     members.forEach(...);
+     * }
+     * </pre></blockquote>
+     */
+    public Stream<Member> streamAll() {
+        String sql = "select * from member";
+        return stream(sql);
+    }
+
+    /**
+     * <h2>잔액 범위 스트림 조회</h2>
+     * minMoney 이상 maxMoney 이하인 회원을 스트림으로 조회한다. 사용법은 streamAll()과 같다.
+     */
+    public Stream<Member> streamByMoneyRange(int minMoney, int maxMoney) {
+        String sql = "select * from member where money between ? and ?";
+        return stream(sql, minMoney, maxMoney);
+    }
+
+    /**
+     * queryForStream 은 스트림을 닫을 때 ResultSet, Statement 를 닫고
+     * DataSourceUtils.releaseConnection()으로 커넥션을 반환한다.
+     */
+    private Stream<Member> stream(String sql, Object... args) {
+        return template.queryForStream(con -> {
+            PreparedStatement pstmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(STREAM_FETCH_SIZE);
+            new ArgumentPreparedStatementSetter(args).setValues(pstmt);
+            return pstmt;
+        }, memberRowMapper());
+    }
+
     private RowMapper<Member> memberRowMapper() {
-        return (rs, rowNum) -> {
-            Member member = new Member();
-            member.setMemberId(rs.getString("member_id"));
-            member.setMoney(rs.getInt("money"));
-            return member;
-        };
+        return (rs, rowNum) -> MemberJdbcSupport.mapMember(rs);
     }
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package thespeace.jdbc.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.EmptyResultDataAccessException;
+import thespeace.jdbc.domain.Member;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>존재하지 않는 회원 조회 캐시(negative cache)</h1>
+ * 오타난 id, 탈퇴한 회원, 봇의 무작위 조회처럼 없는 회원을 찾는 요청은 매번 쿼리를 실행하고,
+ * 예외({@code NoSuchElementException}, {@code EmptyResultDataAccessException})를 만들고 스택 트레이스까지 채운다.<br>
+ * 이 리포지토리는 delegate 의 findById 가 "없음" 예외를 던진 id 를 기억해 두었다가, 다음 조회부터는
+ * DataSource 를 거치지 않고 메모리에서 바로 답한다.
+ * <ul>
+ *     <li>캐시에는 "없음" 표시와 delegate 가 던진 예외의 종류({@link MissKind})만 저장하고, 조회할 때마다 그 종류의 예외를 새로 만들어 던진다.
+ *         스택 트레이스를 채우지 않으므로 만드는 비용이 작다. 예외 객체를 공유하지 않으므로 호출자가 예외를 수정해도(addSuppressed 등) 서로 영향이 없다.</li>
+ *     <li>save, saveAll, saveOrUpdate, insertIfAbsent 로 회원이 생기면 즉시, 그리고 트랜잭션이 끝날 때 한 번 더 제거한다.</li>
+ *     <li>조회 쿼리가 실행된 뒤 "없음"을 기록하기 전에 다른 트랜잭션이 회원을 추가하고 커밋할 수 있다.
+ *         제거할 때마다 올리는 버전(invalidations)을 조회 전후로 비교해서, 그 사이 제거가 있었으면 방금 기록한 "없음"을 다시 지운다.
+ *         (기록을 먼저 하고 버전을 나중에 확인하므로, 확인 이후의 제거는 기록을 지운다)</li>
+ *     <li>이 비교는 조회 쿼리가 문장 시작 시점의 커밋된 데이터를 본다고(READ COMMITTED, H2 기본값) 가정한다.
+ *         REPEATABLE READ 이상의 긴 트랜잭션은 이미 커밋된 회원을 없다고 보고 기록할 수 있고, 이 기록은 ttl 까지 남는다.</li>
+ *     <li>같은 트랜잭션 안에서 변경(삭제 포함)한 id 는 커밋되지 않은 상태이므로 기록하지 않는다.</li>
+ *     <li>findOptionalById, existsById 도 알려진 id 는 DB 없이 바로 답한다. 새로 기록하는 것은 findById 의 예외뿐이다.</li>
+ *     <li>maximumSize, ttl 로 크기와 보관 기간을 제한한다.</li>
+ * </ul>
+ */
+@Slf4j
+public class NegativeLookupMemberRepository extends ForwardingMemberRepository {
+
+    private final Cache<String, MissKind> misses;
+    private final TransactionalWriteTracker writeTracker;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public NegativeLookupMemberRepository(MemberRepository delegate, long maximumSize, Duration ttl) {
+        super(delegate);
+        this.misses = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.writeTracker = new TransactionalWriteTracker(memberIds -> {
+            invalidations.incrementAndGet();
+            misses.invalidateAll(memberIds);
+        });
+    }
+
+    public CacheStats stats() {
+        return misses.stats();
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        MissKind missKind = misses.getIfPresent(memberId);
+        if (missKind != null) {
+            throw missKind.create("member not found memberId=" + memberId);
+        }
+
+        long version = invalidations.get();
+        try {
+            return delegate.findById(memberId);
+        } catch (NoSuchElementException | EmptyResultDataAccessException e) {
+            if (!writeTracker.contains(memberId)) {
+                misses.put(memberId, e instanceof EmptyResultDataAccessException ? MissKind.EMPTY_RESULT : MissKind.NO_SUCH_ELEMENT);
+                if (invalidations.get() != version) {
+                    misses.invalidate(memberId);
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        if (misses.getIfPresent(memberId) != null) {
+            return Optional.empty();
+        }
+        return delegate.findOptionalById(memberId);
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return misses.getIfPresent(memberId) == null && delegate.existsById(memberId);
+    }
+
+    /**
+     * 이미 없다고 알려진 id 는 조회 대상에서 뺀다.
+     */
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        List<String> unknownIds = new ArrayList<>();
+        for (String memberId : memberIds) {
+            if (misses.getIfPresent(memberId) == null) {
+                unknownIds.add(memberId);
+            }
+        }
+        return unknownIds.isEmpty() ? new HashMap<>() : delegate.findAllById(unknownIds);
+    }
+
+    @Override
+    public Member save(Member member) {
+        Member savedMember = delegate.save(member);
+        invalidate(member.getMemberId());
+        return savedMember;
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        delegate.saveAll(members);
+        members.forEach(member -> invalidate(member.getMemberId()));
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        boolean inserted = delegate.saveOrUpdate(member);
+        invalidate(member.getMemberId());
+        return inserted;
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        boolean inserted = delegate.insertIfAbsent(member);
+        invalidate(member.getMemberId());
+        return inserted;
+    }
+
+    @Override
+    public void delete(String memberId) {
+        delegate.delete(memberId);
+        writeTracker.add(memberId);
+    }
+
+    private void invalidate(String memberId) {
+        invalidations.incrementAndGet();
+        misses.invalidate(memberId);
+        writeTracker.add(memberId);
+    }
+
+    /**
+     * delegate 가 던진 "없음" 예외의 종류. 회원마다 기록하므로 delegate 가 조회 방법에 따라 다른 예외를 던져도 그대로 재현한다.
+     */
+    private enum MissKind {
+        NO_SUCH_ELEMENT {
+            @Override
+            RuntimeException create(String message) {
+                return new KnownNoSuchElementException(message);
+            }
+        },
+        EMPTY_RESULT {
+            @Override
+            RuntimeException create(String message) {
+                return new KnownEmptyResultException(message);
+            }
+        };
+
+        abstract RuntimeException create(String message);
+    }
+
+    /**
+     * 캐시에서 답한 "없음" 예외는 스택 트레이스를 채우지 않는다.
+     */
+    private static class KnownNoSuchElementException extends NoSuchElementException {
+
+        KnownNoSuchElementException(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static class KnownEmptyResultException extends EmptyResultDataAccessException {
+
+        KnownEmptyResultException(String message) {
+            super(message, 1);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
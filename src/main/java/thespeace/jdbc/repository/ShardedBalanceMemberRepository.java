@@ -0,0 +1,421 @@
+package thespeace.jdbc.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import thespeace.jdbc.domain.Member;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>잔액 분할(sharded balance)</h1>
+ * 입금이 몰리는 회원(가맹점 등)은 모든 입금이 member row 하나의 row lock 을 기다리므로 처리량이 row 하나에 묶인다.<br>
+ * 이 리포지토리는 {@link #enableSharding(String, int)}로 지정한 회원의 잔액을 member row 와 N 개의 shard row 로 나눈다.
+ * <blockquote><pre>
+ * drop table member_balance_shard if exists;
+ * create table member_balance_shard (
+ *     member_id varchar(10),
+ *     shard_no integer,
+ *     money integer not null default 0,
+ *     primary key (member_id, shard_no),
+ *     foreign key (member_id) references member(member_id)
+ * );
+ * </pre></blockquote>
+ *
+ * <h2>잔액 = member.money + sum(shard.money)</h2>
+ * <ul>
+ *     <li>입금: 무작위 shard 하나에 더한다. 서로 다른 shard 에 대한 입금은 row lock 을 기다리지 않는다.
+ *         입금은 잔액을 늘리기만 하므로 minBalance 를 검사하지 않는다.</li>
+ *     <li>출금: member row 를 먼저 잠그고 무작위 shard 하나에서 뺀다. shard 는 음수가 되지 않으므로 member.money 가 minBalance 이상이면 전체 잔액도 minBalance 이상이다.
+ *         shard 잔액이 부족하면 member row 에서 빼고, 그래도 안 되면 모든 shard 를 member row 로 합친(consolidate) 뒤 뺀다.</li>
+ *     <li>조회: member row 에 shard 합계를 더한 잔액을 돌려준다. version 은 member row 의 값이다.</li>
+ *     <li>findByIdForUpdate 는 member row 와 모든 shard 를 잠근다. 그 트랜잭션이 끝날 때까지 입금도 기다린다.</li>
+ *     <li>update, updateAll, saveOrUpdate 처럼 잔액을 덮어쓰는 메서드는 member row 를 수정하고 shard 를 0으로 비운다.
+ *         사이에 들어온 입금을 덮어쓰지 않도록 findByIdForUpdate 로 잠근 뒤 호출해야 한다.</li>
+ *     <li>shard 입금은 version 을 올리지 않으므로 {@link VersionedMemberRepository}를 구현하지 않는다. (낙관적 락 서비스에 쓸 수 없다)</li>
+ * </ul>
+ * <h2>잠금 순서</h2>
+ * <ul>
+ *     <li>한 회원 안에서는 항상 member row → shard(shard_no 순서)다. 분할된 회원의 출금은 shard 를 건드리기 전에 member row 부터 잠근다.</li>
+ *     <li>transfer, adjustAll 은 member row 를 잠글 회원(출금 대상, 분할되지 않은 회원)을 member_id 순서로 먼저 모두 잠그고,
+ *         그 다음 회원별 작업을 member_id 순서로 실행한다. 입금이 shard 를 잠근 뒤 같은 트랜잭션이 그 회원의 member row 를 기다리는 일이 없으므로
+ *         consolidate(member row → 모든 shard)와 교착 상태가 되지 않는다.</li>
+ *     <li>같은 트랜잭션에서 adjustBalance 를 따로 여러 번 호출할 때도 한 회원에게 입금한 뒤 같은 회원에서 출금하지 않아야 한다. 필요하면 adjustAll 로 묶는다.</li>
+ *     <li>분할된 회원의 출금, transfer, adjustAll 은 여러 문장으로 나뉘므로 실제 트랜잭션 안에서만 실행한다.
+ *         트랜잭션이 없으면({@code TransactionSynchronizationManager.isActualTransactionActive()}) {@code IllegalStateException}을 던진다.
+ *         분할 시작, 해제도 shard 잔액을 member row 로 옮기는 여러 문장이므로 마찬가지다.</li>
+ * </ul>
+
+ * 회원별 shard 수는 maximumSize, ttl 로 제한한 캐시에 보관한다. 다른 서버에서 분할을 바꾸면 ttl 이 지난 뒤 반영된다.
+ * 조회 중 캐시에 없는 회원은 shard 합계를 구하는 쿼리에서 shard 수도 함께 읽어 캐시를 채운다. (회원마다 따로 확인하지 않는다)
+ * 그 사이 없는 shard 로 입금하면 member row 에 더하므로 잔액은 틀리지 않는다.
+ */
+@Slf4j
+public class ShardedBalanceMemberRepository extends ForwardingMemberRepository {
+
+    private final JdbcTemplate template;
+    private final Cache<String, Integer> shardCounts;
+
+    public ShardedBalanceMemberRepository(MemberRepository delegate, DataSource dataSource) {
+        this(delegate, dataSource, 10_000, Duration.ofMinutes(1));
+    }
+
+    public ShardedBalanceMemberRepository(MemberRepository delegate, DataSource dataSource, long maximumSize, Duration ttl) {
+        super(delegate);
+        this.template = new JdbcTemplate(dataSource);
+        this.shardCounts = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * <h2>잔액 분할 시작</h2>
+     * 0 ~ shards-1 번 shard row 를 만든다. 이미 분할된 회원이면 shard 수를 바꾼다.
+     * 줄어드는 shard 의 잔액은 member row 로 옮긴다.
+     */
+    public void enableSharding(String memberId, int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards must be positive: " + shards);
+        }
+        requireTransaction("enableSharding");
+        foldShards(memberId, shards);
+        String sql = "merge into member_balance_shard s using (values (cast(? as varchar(10)), cast(? as integer))) v(member_id, shard_no)" +
+                " on s.member_id = v.member_id and s.shard_no = v.shard_no" +
+                " when not matched then insert (member_id, shard_no, money) values (v.member_id, v.shard_no, 0)";
+        template.batchUpdate(sql, IntStream.range(0, shards).boxed().toList(), DEFAULT_BATCH_SIZE, (ps, shardNo) -> {
+            ps.setString(1, memberId);
+            ps.setInt(2, shardNo);
+        });
+        shardCounts.put(memberId, shards);
+        log.info("balance sharding enabled memberId={}, shards={}", memberId, shards);
+    }
+
+    /**
+     * <h2>잔액 분할 해제</h2>
+     * 모든 shard 의 잔액을 member row 로 옮기고 shard row 를 삭제한다.
+     */
+    public void disableSharding(String memberId) {
+        requireTransaction("disableSharding");
+        foldShards(memberId, 0);
+        shardCounts.put(memberId, 0);
+        log.info("balance sharding disabled memberId={}", memberId);
+    }
+
+    public int shardCount(String memberId) {
+        return shardCounts.get(memberId, this::loadShardCount);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return withShardBalance(delegate.findById(memberId));
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        return delegate.findOptionalById(memberId).map(this::withShardBalance);
+    }
+
+    /**
+     * member row 를 잠근 뒤 shard row 도 모두 잠근다. 이후의 입금은 이 트랜잭션이 끝날 때까지 기다린다.
+     */
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        Member member = delegate.findByIdForUpdate(memberId);
+        if (!isSharded(memberId)) {
+            return member;
+        }
+        String sql = "select money from member_balance_shard where member_id = ? order by shard_no for update";
+        long shardMoney = 0;
+        for (Integer money : template.queryForList(sql, Integer.class, memberId)) {
+            shardMoney += money;
+        }
+        member.setMoney(Math.toIntExact(member.getMoney() + shardMoney));
+        return member;
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        Map<String, Member> members = delegate.findAllById(memberIds);
+        addShardBalances(members.values());
+        return members;
+    }
+
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        MemberPage page = delegate.findPageAfter(pageToken, limit);
+        addShardBalances(page.getMembers());
+        return page;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        delegate.update(memberId, money);
+        if (isSharded(memberId)) {
+            drainShards(memberId);
+        }
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        delegate.updateAll(members);
+        for (Member member : members) {
+            if (isSharded(member.getMemberId())) {
+                drainShards(member.getMemberId());
+            }
+        }
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        boolean inserted = delegate.saveOrUpdate(member);
+        if (!inserted && isSharded(member.getMemberId())) {
+            drainShards(member.getMemberId());
+        }
+        return inserted;
+    }
+
+    @Override
+    public void delete(String memberId) {
+        template.update("delete from member_balance_shard where member_id = ?", memberId);
+        delegate.delete(memberId);
+        shardCounts.invalidate(memberId);
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        int shards = shardCount(memberId);
+        if (shards == 0) {
+            return delegate.adjustBalance(memberId, delta, minBalance);
+        }
+        return delta >= 0 ? credit(memberId, shards, delta) : debit(memberId, shards, delta, minBalance);
+    }
+
+    /**
+     * 분할된 회원이 없으면 delegate 의 배치로 처리한다.<br>
+     * 아니면 member row 를 잠글 회원을 먼저 잠근 뒤, 분할된 회원은 member_id 순서로 adjustBalance 를 하나씩,
+     * 나머지는 delegate 의 배치로 처리한다. (배치가 수정할 member row 는 이미 잠겨 있다)
+     */
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        if (deltas.keySet().stream().noneMatch(this::isSharded)) {
+            return delegate.adjustAll(deltas, minBalance);
+        }
+        requireTransaction("adjustAll");
+        SortedMap<String, Integer> sortedDeltas = new TreeMap<>(deltas);
+        lockMemberRows(sortedDeltas);
+
+        Map<String, Integer> plainDeltas = new LinkedHashMap<>();
+        int applied = 0;
+        for (Map.Entry<String, Integer> entry : sortedDeltas.entrySet()) {
+            if (isSharded(entry.getKey())) {
+                if (adjustBalance(entry.getKey(), entry.getValue(), minBalance)) {
+                    applied++;
+                }
+            } else {
+                plainDeltas.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return plainDeltas.isEmpty() ? applied : applied + delegate.adjustAll(plainDeltas, minBalance);
+    }
+
+    /**
+     * 두 회원 모두 분할되지 않았으면 delegate 의 한 문장 이체를 사용한다.<br>
+     * 아니면 member row 를 잠글 회원을 먼저 잠그고 출금 회원의 잔액을 확인한 뒤, 출금, 입금을 member_id 순서로 adjustBalance 로 처리한다.
+     * 출금 회원은 잠겨 있어 잔액이 줄지 않으므로 확인한 뒤의 출금은 실패하지 않는다.
+     * 입금이 실패하면(그 사이 회원이 삭제된 경우) 먼저 처리한 출금을 되돌린다.
+     */
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        if (!isSharded(fromId) && !isSharded(toId)) {
+            return delegate.transfer(fromId, toId, money);
+        }
+        TransferResult.checkArguments(fromId, toId, money);
+        requireTransaction("transfer");
+        SortedMap<String, Integer> deltas = new TreeMap<>();
+        deltas.put(fromId, -money);
+        deltas.put(toId, money);
+        lockMemberRows(deltas);
+
+        Optional<Member> fromMember = findOptionalById(fromId);
+        if (fromMember.isEmpty() || fromMember.get().getMoney() < money || !existsById(toId)) {
+            return Optional.empty();
+        }
+        if (fromId.compareTo(toId) < 0) {
+            debitLocked(fromId, money);
+            if (!adjustBalance(toId, money, Integer.MIN_VALUE)) {
+                adjustBalance(fromId, money, Integer.MIN_VALUE);
+                return Optional.empty();
+            }
+        } else {
+            if (!adjustBalance(toId, money, Integer.MIN_VALUE)) {
+                return Optional.empty();
+            }
+            debitLocked(fromId, money);
+        }
+        return Optional.of(new TransferResult(findById(fromId), findById(toId)));
+    }
+
+    /**
+     * 잠그고 잔액을 확인한 회원에서 출금한다. 실패하면 잠금 순서가 지켜지지 않은 것이므로 트랜잭션을 되돌리도록 예외를 던진다.
+     */
+    private void debitLocked(String memberId, int money) {
+        if (!adjustBalance(memberId, -money, 0)) {
+            throw new IllegalStateException("debit failed after balance check memberId=" + memberId + ", money=" + money);
+        }
+    }
+
+    /**
+     * 출금하거나(delta 가 음수) 분할되지 않은 회원의 member row 를 member_id 순서로 잠근다. 없는 회원은 건너뛴다.
+     * 분할된 회원의 입금은 shard 만 수정하므로 잠그지 않는다.
+     */
+    private void lockMemberRows(SortedMap<String, Integer> deltas) {
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            String memberId = entry.getKey();
+            if ((entry.getValue() < 0 || !isSharded(memberId)) && delegate.existsById(memberId)) {
+                delegate.findByIdForUpdate(memberId);
+            }
+        }
+    }
+
+    private void requireTransaction(String task) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException(task + " on sharded balance must run inside an active transaction");
+        }
+    }
+
+    /**
+     * shard row 가 아직 보이지 않으면(다른 트랜잭션에서 분할 중) member row 에 더한다.
+     */
+    private boolean credit(String memberId, int shards, int delta) {
+        String sql = "update member_balance_shard set money = money + ? where member_id = ? and shard_no = ?";
+        if (template.update(sql, delta, memberId, ThreadLocalRandom.current().nextInt(shards)) == 1) {
+            return true;
+        }
+        return delegate.adjustBalance(memberId, delta, Integer.MIN_VALUE);
+    }
+
+    /**
+     * member row 를 잠근 뒤 shard 하나 → member row → consolidate 순서로 시도한다.
+     */
+    private boolean debit(String memberId, int shards, int delta, int minBalance) {
+        requireTransaction("debit");
+        if (!delegate.existsById(memberId)) {
+            return false;
+        }
+        delegate.findByIdForUpdate(memberId);
+
+        String sql = "update member_balance_shard set money = money + ?" +
+                " where member_id = ? and shard_no = ? and money + ? >= 0" +
+                " and (select money from member where member_id = ?) >= ?";
+        int shardNo = ThreadLocalRandom.current().nextInt(shards);
+        if (template.update(sql, delta, memberId, shardNo, delta, memberId, minBalance) == 1) {
+            return true;
+        }
+        if (delegate.adjustBalance(memberId, delta, minBalance)) {
+            return true;
+        }
+        return consolidateAndDebit(memberId, delta, minBalance);
+    }
+
+    /**
+     * 모든 shard 잔액을 member row 로 옮긴 뒤 뺀다. member row 는 debit 에서 이미 잠갔다.
+     * 전체 잔액이 부족해도 옮긴 잔액은 member row 에 남긴다.
+     */
+    private boolean consolidateAndDebit(String memberId, int delta, int minBalance) {
+        int drained = drainShards(memberId);
+        log.debug("consolidated shards memberId={}, drained={}", memberId, drained);
+        if (delegate.adjustBalance(memberId, Math.addExact(drained, delta), minBalance)) {
+            return true;
+        }
+        if (drained != 0) {
+            delegate.adjustBalance(memberId, drained, Integer.MIN_VALUE);
+        }
+        return false;
+    }
+
+    /**
+     * 모든 shard 를 0으로 만들고 그 전 잔액의 합을 반환한다. {@code OLD TABLE}로 수정 전 값을 같은 문장에서 읽는다.
+     */
+    private int drainShards(String memberId) {
+        String sql = "select coalesce(sum(money), 0) from old table (" +
+                " update member_balance_shard set money = 0 where member_id = ? and money <> 0)";
+        Long drained = template.queryForObject(sql, Long.class, memberId);
+        return drained == null ? 0 : Math.toIntExact(drained);
+    }
+
+    /**
+     * shard_no 가 fromShardNo 이상인 shard 를 삭제하고 그 잔액을 member row 로 옮긴다.
+     */
+    private void foldShards(String memberId, int fromShardNo) {
+        delegate.findByIdForUpdate(memberId);
+        String sql = "select coalesce(sum(money), 0) from old table (" +
+                " delete from member_balance_shard where member_id = ? and shard_no >= ?)";
+        Long folded = template.queryForObject(sql, Long.class, memberId, fromShardNo);
+        if (folded != null && folded != 0) {
+            delegate.adjustBalance(memberId, Math.toIntExact(folded), Integer.MIN_VALUE);
+        }
+    }
+
+    private boolean isSharded(String memberId) {
+        return shardCount(memberId) > 0;
+    }
+
+    private int loadShardCount(String memberId) {
+        String sql = "select count(*) from member_balance_shard where member_id = ?";
+        Integer count = template.queryForObject(sql, Integer.class, memberId);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 분할되지 않은 것으로 캐시된 회원은 조회하지 않는다. 캐시에 없으면 shard 수와 합계를 한 쿼리로 읽는다.
+     */
+    private Member withShardBalance(Member member) {
+        Integer cached = shardCounts.getIfPresent(member.getMemberId());
+        if (cached != null && cached == 0) {
+            return member;
+        }
+        String sql = "select count(*), coalesce(sum(money), 0) from member_balance_shard where member_id = ?";
+        template.query(sql, rs -> {
+            shardCounts.put(member.getMemberId(), rs.getInt(1));
+            member.setMoney(Math.toIntExact(member.getMoney() + rs.getLong(2)));
+        }, member.getMemberId());
+        return member;
+    }
+
+    /**
+     * 분할되지 않은 것으로 캐시된 회원을 빼고 IN_LIST_SIZE 단위로 shard 수와 합계를 조회한다.
+     * 결과에 없는 회원은 분할되지 않은 회원이다. 조회한 shard 수로 캐시를 채운다.
+     */
+    private void addShardBalances(Collection<Member> members) {
+        Map<String, Member> candidates = new HashMap<>();
+        for (Member member : members) {
+            Integer cached = shardCounts.getIfPresent(member.getMemberId());
+            if (cached == null || cached > 0) {
+                candidates.put(member.getMemberId(), member);
+            }
+        }
+        List<String> ids = new ArrayList<>(candidates.keySet());
+        for (int from = 0; from < ids.size(); from += IN_LIST_SIZE) {
+            List<String> chunk = ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size()));
+            Map<String, Integer> counts = new HashMap<>();
+            for (String memberId : chunk) {
+                counts.put(memberId, 0);
+            }
+            String sql = "select member_id, count(*), sum(money) from member_balance_shard where member_id in (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ") group by member_id";
+            template.query(sql, rs -> {
+                Member member = candidates.get(rs.getString(1));
+                counts.put(member.getMemberId(), rs.getInt(2));
+                member.setMoney(Math.toIntExact(member.getMoney() + rs.getLong(3)));
+            }, chunk.toArray());
+            shardCounts.putAll(counts);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package thespeace.jdbc.repository;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <h2>트랜잭션 안에서 변경한 회원 id 기록</h2>
+ * 캐시를 가진 리포지토리 데코레이터가 사용한다. 변경한 id 를 현재 트랜잭션의 리소스로 기록해두고,
+ * 트랜잭션이 끝나면(커밋/롤백 모두) {@code afterCompletion} 콜백에 넘겨준다.
+ * 트랜잭션 동기화가 활성화되어 있지 않으면 아무것도 기록하지 않는다.
+ */
+class TransactionalWriteTracker {
+
+    private final Consumer<Set<String>> afterCompletion;
+
+    TransactionalWriteTracker(Consumer<Set<String>> afterCompletion) {
+        this.afterCompletion = afterCompletion;
+    }
+
+    void add(String memberId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        WrittenIds writtenIds = (WrittenIds) TransactionSynchronizationManager.getResource(this);
+        if (writtenIds == null) {
+            writtenIds = new WrittenIds();
+            TransactionSynchronizationManager.bindResource(this, writtenIds);
+            TransactionSynchronizationManager.registerSynchronization(new WrittenIdsSynchronization(writtenIds));
+        }
+        writtenIds.add(memberId);
+    }
+
+    boolean contains(String memberId) {
+        WrittenIds writtenIds = (WrittenIds) TransactionSynchronizationManager.getResource(this);
+        return writtenIds != null && writtenIds.contains(memberId);
+    }
+
+    private static class WrittenIds extends HashSet<String> {
+    }
+
+    private class WrittenIdsSynchronization implements TransactionSynchronization {
+
+        private final WrittenIds writtenIds;
+
+        WrittenIdsSynchronization(WrittenIds writtenIds) {
+            this.writtenIds = writtenIds;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(TransactionalWriteTracker.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(TransactionalWriteTracker.this, writtenIds);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(TransactionalWriteTracker.this);
+            afterCompletion.accept(writtenIds);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package thespeace.jdbc.repository;
+
+import lombok.Getter;
+import thespeace.jdbc.domain.Member;
+
+import java.util.List;
+
+/**
+ * <h1>이체 결과</h1>
+ * {@link MemberRepository#transfer(String, String, int)}가 반영한 뒤의 두 회원 잔액
+ */
+@Getter
+public class TransferResult {
+
+    private final Member fromMember;
+    private final Member toMember;
+
+    public TransferResult(Member fromMember, Member toMember) {
+        this.fromMember = fromMember;
+        this.toMember = toMember;
+    }
+
+    /**
+     * 이체 문장이 반환한 두 row 로 결과를 만든다. (row 순서는 보장되지 않는다)
+     */
+    public static TransferResult of(String fromId, List<Member> rows) {
+        Member first = rows.get(0);
+        Member second = rows.get(1);
+        return first.getMemberId().equals(fromId) ? new TransferResult(first, second) : new TransferResult(second, first);
+    }
+
+    public static void checkArguments(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            throw new IllegalArgumentException("fromId and toId must be different: " + fromId);
+        }
+        if (money <= 0) {
+            throw new IllegalArgumentException("money must be positive: " + money);
+        }
+    }
+}
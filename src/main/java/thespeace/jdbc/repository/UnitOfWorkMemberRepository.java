@@ -0,0 +1,206 @@
+package thespeace.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import thespeace.jdbc.domain.Member;
+
+import java.util.*;
+
+/**
+ * <h1>작업 단위(unit of work) - 잔액 변경을 커밋 직전에 한 번의 배치로 반영</h1>
+ * {@code MemberServiceV4.bizLogic}은 update 를 실행할 때마다 DB 에 왕복한다.
+ * 이 리포지토리는 트랜잭션 안의 update 를 바로 실행하지 않고 현재 트랜잭션의 리소스에 기록해둔다.
+ * {@code TransactionSynchronization.beforeCommit}에서 기록한 변경을 {@code updateAll} 한 번으로 반영한다.
+ * <ul>
+ *     <li>같은 회원을 여러 번 수정하면 마지막 잔액만 남는다. 줄어드는 것은 update 왕복 횟수다.</li>
+ *     <li>member_id 순서로 정렬해서 반영하므로 트랜잭션끼리 row lock 을 같은 순서로 잡는다.</li>
+ *     <li>row lock 유지 시간은 서비스가 어떻게 조회하는지에 달려 있다. {@code MemberServiceV4}처럼 {@code findByIdForUpdate}로
+ *         조회하면 그 시점에 delegate 가 row lock 을 잡고 커밋까지 유지하므로, 잠금 유지 시간은 줄어들지 않는다.
+ *         잠그지 않고 조회하는 경우에만 update 의 row lock 이 커밋 직전의 flush 동안으로 짧아진다.
+ *         (이때는 조회와 반영 사이에 다른 트랜잭션이 같은 회원을 수정할 수 있으므로 잔액 검사가 필요하면 잠금 조회를 써야 한다)</li>
+ *     <li>롤백되면 기록한 변경을 버린다. DB 에는 아무것도 실행되지 않는다.</li>
+ *     <li>조회는 delegate 결과에 기록한 잔액을 덮어써서 반환한다. 같은 트랜잭션에서는 자신의 변경이 보인다.</li>
+ *     <li>순서가 결과에 영향을 주는 다른 변경(save, delete, adjustBalance 등)은 기록한 변경을 먼저 반영(flush)한 뒤 실행한다.</li>
+ * </ul>
+ * 트랜잭션 밖의 update 는 그대로 delegate 에 위임한다.<br>
+ * 주의! 반영은 커밋 직전이므로, 회원이 없는 경우 등 update 에서 발생할 예외도 커밋 시점에 발생하고 트랜잭션은 롤백된다.
+ */
+@Slf4j
+public class UnitOfWorkMemberRepository extends ForwardingMemberRepository {
+
+    public UnitOfWorkMemberRepository(MemberRepository delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        DirtyMembers dirtyMembers = dirtyMembers();
+        if (dirtyMembers == null) {
+            delegate.update(memberId, money);
+            return;
+        }
+        dirtyMembers.put(memberId, money);
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        DirtyMembers dirtyMembers = dirtyMembers();
+        if (dirtyMembers == null) {
+            delegate.updateAll(members);
+            return;
+        }
+        members.forEach(member -> dirtyMembers.put(member.getMemberId(), member.getMoney()));
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return overlay(delegate.findById(memberId));
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return overlay(delegate.findByIdForUpdate(memberId));
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        return delegate.findOptionalById(memberId).map(this::overlay);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        Map<String, Member> result = delegate.findAllById(memberIds);
+        result.replaceAll((memberId, member) -> overlay(member));
+        return result;
+    }
+
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        flush();
+        return delegate.findPageAfter(pageToken, limit);
+    }
+
+    @Override
+    public Member save(Member member) {
+        flush();
+        return delegate.save(member);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        flush();
+        delegate.delete(memberId);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        flush();
+        delegate.saveAll(members);
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        flush();
+        return delegate.saveOrUpdate(member);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        flush();
+        return delegate.insertIfAbsent(member);
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        flush();
+        return delegate.adjustBalance(memberId, delta, minBalance);
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        flush();
+        return delegate.adjustAll(deltas, minBalance);
+    }
+
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        flush();
+        return delegate.transfer(fromId, toId, money);
+    }
+
+    /**
+     * 현재 트랜잭션에 기록한 변경을 member_id 순서로 한 번의 배치로 반영한다.
+     */
+    public void flush() {
+        DirtyMembers dirtyMembers = (DirtyMembers) TransactionSynchronizationManager.getResource(this);
+        if (dirtyMembers == null || dirtyMembers.isEmpty()) {
+            return;
+        }
+        List<Member> members = new ArrayList<>(dirtyMembers.size());
+        dirtyMembers.forEach((memberId, money) -> members.add(new Member(memberId, money)));
+        dirtyMembers.clear();
+        log.info("flush members={}", members.size());
+        delegate.updateAll(members);
+    }
+
+    /**
+     * 트랜잭션 동기화가 활성화되어 있지 않으면 {@code null}
+     */
+    private DirtyMembers dirtyMembers() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        DirtyMembers dirtyMembers = (DirtyMembers) TransactionSynchronizationManager.getResource(this);
+        if (dirtyMembers == null) {
+            dirtyMembers = new DirtyMembers();
+            TransactionSynchronizationManager.bindResource(this, dirtyMembers);
+            TransactionSynchronizationManager.registerSynchronization(new DirtyMembersSynchronization(dirtyMembers));
+        }
+        return dirtyMembers;
+    }
+
+    /**
+     * 기록한 변경은 여러 번이어도 flush 때 update 한 번으로 반영되므로 version 은 1만 올라간다.
+     */
+    private Member overlay(Member member) {
+        DirtyMembers dirtyMembers = (DirtyMembers) TransactionSynchronizationManager.getResource(this);
+        Integer money = dirtyMembers == null ? null : dirtyMembers.get(member.getMemberId());
+        return money == null ? member : new Member(member.getMemberId(), money, member.getVersion() + 1);
+    }
+
+    /**
+     * member_id 순서로 정렬된 회원별 최종 잔액
+     */
+    private static class DirtyMembers extends TreeMap<String, Integer> {
+    }
+
+    private class DirtyMembersSynchronization implements TransactionSynchronization {
+
+        private final DirtyMembers dirtyMembers;
+
+        DirtyMembersSynchronization(DirtyMembers dirtyMembers) {
+            this.dirtyMembers = dirtyMembers;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(UnitOfWorkMemberRepository.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(UnitOfWorkMemberRepository.this, dirtyMembers);
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            flush();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(UnitOfWorkMemberRepository.this);
+        }
+    }
+}
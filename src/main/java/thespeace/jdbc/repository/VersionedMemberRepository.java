@@ -0,0 +1,19 @@
+package thespeace.jdbc.repository;
+
+/**
+ * <h1>version 을 관리하는 리포지토리</h1>
+ * member.version 을 갱신하는 JDBC 리포지토리(V4_1, V4_2, V5)만 구현한다.
+ * 낙관적 락이 필요한 서비스({@code MemberServiceV4_2})는 MemberRepository 대신 이 인터페이스에 의존한다.
+ * 메모리 저장소처럼 version 이 없는 구현체나, shard 입금처럼 version 을 올리지 않고 잔액을 바꾸는 데코레이터는 구현하지 않는다.
+ */
+public interface VersionedMemberRepository extends MemberRepository {
+
+    /**
+     * <h2>낙관적 락 수정</h2>
+     * {@code where member_id = ? and version = ?}로 조회했을 때의 version 인 경우에만 잔액을 바꾸고 version 을 1 올린다.
+     * row lock 을 조회 시점부터 잡지 않으므로 충돌이 드물면 잠금 대기가 없다.
+     *
+     * @throws thespeace.jdbc.repository.ex.MyOptimisticLockException 그 사이 다른 트랜잭션이 수정했거나 회원이 없어서 반영된 row 가 없으면
+     */
+    void updateWithVersion(String memberId, int money, long version);
+}
@@ -0,0 +1,27 @@
+package thespeace.jdbc.repository.ex;
+
+/**
+ * <h1>낙관적 락 충돌 예외</h1>
+ * 조회할 때의 version 으로 수정했는데 반영된 row 가 없을 때 던진다. 그 사이 다른 트랜잭션이 먼저 수정(또는 삭제)한 것이다.
+ * <ul>
+ *     <li>MyDbException 을 상속받아서 데이터베이스 예외 계층에 속한다.</li>
+ *     <li>서비스는 이 예외를 잡아서 다시 조회한 뒤 재시도할 수 있다. 다른 MyDbException 과 구분되므로 복구 가능한 경우만 골라낼 수 있다.</li>
+ * </ul>
+ */
+public class MyOptimisticLockException extends MyDbException {
+
+    public MyOptimisticLockException() {
+    }
+
+    public MyOptimisticLockException(String message) {
+        super(message);
+    }
+
+    public MyOptimisticLockException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public MyOptimisticLockException(Throwable cause) {
+        super(cause);
+    }
+}
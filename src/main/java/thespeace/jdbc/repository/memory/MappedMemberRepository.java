@@ -0,0 +1,641 @@
+package thespeace.jdbc.repository.memory;
+
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberPage;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.TransferResult;
+import thespeace.jdbc.repository.ex.MyDbException;
+import thespeace.jdbc.repository.ex.MyDuplicateKeyException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * <h1>메모리 맵 파일 회원 저장소 (off-heap)</h1>
+ * {@link MemoryMemberRepository}는 배열을 힙에 두기 때문에 저장소가 커지면 GC 가 다뤄야 할 힙도 커진다.
+ * 이 저장소는 같은 open addressing 해시 테이블을 {@code FileChannel.map}으로 매핑한 파일 위에 둔다.
+ * 데이터는 힙 밖(페이지 캐시)에 있으므로 회원 수와 관계없이 GC 대상 객체가 늘어나지 않는다.<br><br>
+ *
+ * <h2>파일 구조</h2>
+ * <blockquote><pre>
+ * [파일 헤더 64B] magic, version, segmentCount, segmentCapacity, maxKeyBytes
+ * [세그먼트 0] [세그먼트 헤더 64B: size, used, purging] [레코드 0] [레코드 1] ...
+ * [세그먼트 1] ...
+ * 레코드 = [상태 1B: 0 빈 슬롯, -1 삭제, 그 외 id 길이 + 1] [id maxKeyBytes B] [money 4B]
+ * </pre></blockquote>
+ * 해시 테이블 자체가 파일에 있으므로 별도 인덱스를 만들 필요가 없다. 재시작할 때 파일을 다시 매핑하기만 하면
+ * 바로 조회할 수 있다. {@code member} 테이블에서 다시 적재할 필요가 없고, OS 가 접근하는 페이지부터 읽어온다.
+ * 세그먼트 하나는 {@code MappedByteBuffer} 하나(최대 1GB)이고, 세그먼트마다 {@code StampedLock}을 둔다.
+ *
+ * <h2>제약</h2>
+ * <ul>
+ *     <li>크기는 파일을 만들 때 정한 capacity 로 고정된다. 더 큰 테이블로 재해시하지 않으므로 가득 차면 {@code IllegalStateException}을 던진다.</li>
+ *     <li>삭제한 슬롯(tombstone)은 같은 탐색 경로의 insert 가 재사용한다. 새 슬롯을 쓰다가 임계치에 닿았을 때 tombstone 이
+ *         세그먼트의 1/16 이상이면, 같은 크기 안에서 레코드를 앞으로 당겨 tombstone 을 빈 슬롯으로 되돌린다.
+ *         삭제와 추가가 반복되어도 tombstone 때문에 가득 찼다고 판단하지 않는다.
+ *         정리하는 동안에는 세그먼트 헤더의 purging 을 켜 둔다. 정리 도중 프로세스가 죽은 파일을 다시 열면 그 세그먼트를 먼저 복구한다.</li>
+ *     <li>변경은 매핑된 메모리에 바로 쓰이고, OS 가 파일에 반영한다. 프로세스가 죽어도 남지만, OS 장애에 대비하려면
+ *         {@link #flush()}를 호출해야 한다. 트랜잭션은 지원하지 않는다.</li>
+ * </ul>
+ */
+public class MappedMemberRepository implements MemberRepository, Closeable {
+
+    private static final int MAGIC = 0x4d454d42; //"MEMB"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 64;
+    private static final int SEGMENT_HEADER_BYTES = 64;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final int MIN_SEGMENT_COUNT = 16;
+    private static final long NOT_FOUND = Long.MIN_VALUE;
+
+    private static final byte EMPTY = 0;
+    private static final byte DELETED = -1;
+
+    private final FileChannel channel;
+    private final int maxKeyBytes;
+    private final int recordBytes;
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    /**
+     * 파일이 있으면 기존 파일을 그대로 매핑하고, 없으면 새로 만든다.
+     * 기존 파일의 헤더가 capacity, maxKeyBytes 로 계산한 구조와 다르면 다른 설정으로 만든 파일이므로 예외를 던진다.
+     *
+     * @param capacity    저장할 최대 회원 수
+     * @param maxKeyBytes UTF-8 로 인코딩한 id 의 최대 바이트 수 (1 ~ 126)
+     */
+    public MappedMemberRepository(Path file, long capacity, int maxKeyBytes) {
+        if (maxKeyBytes <= 0 || maxKeyBytes > 126) {
+            throw new IllegalArgumentException("maxKeyBytes must be between 1 and 126: " + maxKeyBytes);
+        }
+        //세그먼트마다 들어오는 회원 수가 조금씩 다르므로 0.75 로 잡고, 세그먼트는 0.875 까지 채운다.
+        long slots = Math.max(1, capacity) * 4 / 3 + 1;
+        long maxSlotsPerSegment = (MAX_SEGMENT_BYTES - SEGMENT_HEADER_BYTES) / (1 + maxKeyBytes + 4);
+        int segmentCount = MIN_SEGMENT_COUNT;
+        while ((slots + segmentCount - 1) / segmentCount > maxSlotsPerSegment) {
+            segmentCount <<= 1;
+        }
+        int segmentCapacity = (int) ((slots + segmentCount - 1) / segmentCount);
+        this.maxKeyBytes = maxKeyBytes;
+
+        try {
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+            if (channel.size() >= FILE_HEADER_BYTES) {
+                channel.read(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    channel.close();
+                    throw new MyDbException("not a member store file: " + file);
+                }
+                int fileSegmentCount = header.getInt();
+                int fileSegmentCapacity = header.getInt();
+                int fileMaxKeyBytes = header.getInt();
+                if (fileSegmentCount != segmentCount || fileSegmentCapacity != segmentCapacity || fileMaxKeyBytes != maxKeyBytes) {
+                    channel.close();
+                    throw new IllegalArgumentException("member store file layout mismatch: " + file
+                            + " file(segmentCount=" + fileSegmentCount + ", segmentCapacity=" + fileSegmentCapacity + ", maxKeyBytes=" + fileMaxKeyBytes
+                            + ") requested(segmentCount=" + segmentCount + ", segmentCapacity=" + segmentCapacity + ", maxKeyBytes=" + maxKeyBytes + ")");
+                }
+            } else {
+                header.putInt(MAGIC).putInt(VERSION).putInt(segmentCount).putInt(segmentCapacity).putInt(maxKeyBytes);
+                header.clear();
+                channel.write(header, 0);
+            }
+
+            this.recordBytes = 1 + maxKeyBytes + 4;
+            this.segmentMask = segmentCount - 1;
+            this.segments = new Segment[segmentCount];
+            long segmentBytes = SEGMENT_HEADER_BYTES + (long) segmentCapacity * recordBytes;
+            for (int i = 0; i < segmentCount; i++) {
+                //파일보다 큰 영역을 매핑하면 파일이 늘어난다. (새 영역은 0으로 채워진다)
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                        FILE_HEADER_BYTES + i * segmentBytes, segmentBytes);
+                segments[i] = new Segment(buffer, segmentCapacity);
+                segments[i].recoverPurge();
+            }
+        } catch (IOException e) {
+            throw new MyDbException("failed to open member store: " + file, e);
+        }
+    }
+
+    @Override
+    public Member save(Member member) {
+        byte[] key = encode(member.getMemberId());
+        int hash = MemberIdCodec.hash(key);
+        if (!segment(hash).put(key, hash, member.getMoney(), false)) {
+            throw new MyDuplicateKeyException("duplicate memberId=" + member.getMemberId());
+        }
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        long money = get(memberId);
+        if (money == NOT_FOUND) {
+            throw new NoSuchElementException("member not found memberId=" + memberId);
+        }
+        return new Member(memberId, (int) money);
+    }
+
+    /**
+     * 트랜잭션이 없으므로 잠글 것이 없다. findById 와 같다.
+     */
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findById(memberId);
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        long money = get(memberId);
+        return money == NOT_FOUND ? Optional.empty() : Optional.of(new Member(memberId, (int) money));
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return get(memberId) != NOT_FOUND;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return;
+        }
+        int hash = MemberIdCodec.hash(key);
+        segment(hash).replace(key, hash, money);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return;
+        }
+        int hash = MemberIdCodec.hash(key);
+        segment(hash).remove(key, hash);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        for (Member member : members) {
+            save(member);
+        }
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        for (Member member : members) {
+            update(member.getMemberId(), member.getMoney());
+        }
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        for (String memberId : memberIds) {
+            long money = get(memberId);
+            if (money != NOT_FOUND) {
+                result.put(memberId, new Member(memberId, (int) money));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 모든 세그먼트를 훑어서 lastMemberId 다음의 id 를 limit + 1 개까지 고른다. (O(n log limit))
+     */
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        MemberPage.checkLimit(limit);
+        String lastMemberId = MemberPage.decodeToken(pageToken);
+
+        PriorityQueue<Member> candidates = new PriorityQueue<>(Comparator.comparing(Member::getMemberId).reversed());
+        for (Segment segment : segments) {
+            segment.collectAfter(lastMemberId, limit + 1, candidates);
+        }
+
+        List<Member> members = new ArrayList<>(candidates);
+        members.sort(Comparator.comparing(Member::getMemberId));
+        return MemberPage.of(members, limit);
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        byte[] key = encode(member.getMemberId());
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).put(key, hash, member.getMoney(), true);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        byte[] key = encode(member.getMemberId());
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).put(key, hash, member.getMoney(), false);
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return false;
+        }
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).adjust(key, hash, delta, minBalance);
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        int applied = 0;
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            if (adjustBalance(entry.getKey(), entry.getValue(), minBalance)) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * 두 세그먼트를 함께 잠그지 않는다. 출금 후 입금하고, 그 사이 입금 계좌가 삭제되었으면 출금을 되돌린다.
+     * 다른 쓰레드가 출금만 된 중간 상태를 잠깐 볼 수 있다.
+     */
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        TransferResult.checkArguments(fromId, toId, money);
+        if (!existsById(toId) || !adjustBalance(fromId, -money, 0)) {
+            return Optional.empty();
+        }
+        if (!adjustBalance(toId, money, Integer.MIN_VALUE)) {
+            adjustBalance(fromId, money, Integer.MIN_VALUE);
+            return Optional.empty();
+        }
+        return Optional.of(new TransferResult(findById(fromId), findById(toId)));
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 매핑된 메모리의 변경 내용을 디스크에 기록한다.
+     */
+    public void flush() {
+        for (Segment segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * flush 후 파일을 닫는다. 매핑은 버퍼가 GC 될 때 해제된다.
+     */
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new MyDbException(e);
+        }
+    }
+
+    private long get(String memberId) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return NOT_FOUND;
+        }
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).get(key, hash);
+    }
+
+    private byte[] encode(String memberId) {
+        return MemberIdCodec.encode(memberId, maxKeyBytes);
+    }
+
+    private byte[] lookupKey(String memberId) {
+        return MemberIdCodec.encodeForLookup(memberId, maxKeyBytes);
+    }
+
+    private Segment segment(int hash) {
+        return segments[hash & segmentMask];
+    }
+
+    private final class Segment {
+
+        private static final int SIZE_OFFSET = 0;
+        private static final int USED_OFFSET = 4;
+        private static final int PURGING_OFFSET = 8;
+
+        private final StampedLock lock = new StampedLock();
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final int threshold;
+        private final int purgeThreshold;
+
+        Segment(MappedByteBuffer buffer, int capacity) {
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.threshold = (int) ((long) capacity * 7 / 8);
+            this.purgeThreshold = Math.max(1, capacity / 16);
+        }
+
+        long get(byte[] key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            long money = find(key, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    money = find(key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return money;
+        }
+
+        boolean put(byte[] key, int hash, int money, boolean overwrite) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = insertionSlot(key, hash);
+                if (slot < 0) {
+                    if (overwrite) {
+                        buffer.putInt(moneyOffset(-slot - 1), money);
+                    }
+                    return false;
+                }
+                if (buffer.get(recordOffset(slot)) == EMPTY && buffer.getInt(USED_OFFSET) + 1 > threshold
+                        && buffer.getInt(USED_OFFSET) - buffer.getInt(SIZE_OFFSET) >= purgeThreshold) {
+                    purgeDeleted();
+                    slot = insertionSlot(key, hash);
+                }
+                int record = recordOffset(slot);
+                if (buffer.get(record) == EMPTY) {
+                    int used = buffer.getInt(USED_OFFSET);
+                    if (used + 1 > threshold) {
+                        throw new IllegalStateException("member store is full");
+                    }
+                    buffer.putInt(USED_OFFSET, used + 1);
+                }
+                //상태 바이트를 마지막에 써서, 쓰는 도중 중단되어도 반쯤 쓴 레코드가 보이지 않게 한다.
+                buffer.put(record + 1, key);
+                buffer.putInt(moneyOffset(slot), money);
+                buffer.put(record, (byte) (key.length + 1));
+                buffer.putInt(SIZE_OFFSET, buffer.getInt(SIZE_OFFSET) + 1);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void replace(byte[] key, int hash, int money) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(key, hash);
+                if (slot >= 0) {
+                    buffer.putInt(moneyOffset(slot), money);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean adjust(byte[] key, int hash, int delta, int minBalance) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(key, hash);
+                if (slot < 0) {
+                    return false;
+                }
+                long money = (long) buffer.getInt(moneyOffset(slot)) + delta;
+                if (money < minBalance) {
+                    return false;
+                }
+                buffer.putInt(moneyOffset(slot), Math.toIntExact(money));
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void remove(byte[] key, int hash) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(key, hash);
+                if (slot >= 0) {
+                    buffer.put(recordOffset(slot), DELETED);
+                    buffer.putInt(SIZE_OFFSET, buffer.getInt(SIZE_OFFSET) - 1);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void collectAfter(String lastMemberId, int limit, PriorityQueue<Member> candidates) {
+            long stamp = lock.readLock();
+            try {
+                byte[] key = new byte[maxKeyBytes];
+                for (int slot = 0; slot < capacity; slot++) {
+                    int record = recordOffset(slot);
+                    byte length = buffer.get(record);
+                    if (length <= 0) {
+                        continue;
+                    }
+                    buffer.get(record + 1, key, 0, length - 1);
+                    String memberId = MemberIdCodec.decode(key, 0, length - 1);
+                    if (lastMemberId != null && memberId.compareTo(lastMemberId) <= 0) {
+                        continue;
+                    }
+                    if (candidates.size() < limit) {
+                        candidates.add(new Member(memberId, buffer.getInt(moneyOffset(slot))));
+                    } else if (memberId.compareTo(candidates.peek().getMemberId()) < 0) {
+                        candidates.poll();
+                        candidates.add(new Member(memberId, buffer.getInt(moneyOffset(slot))));
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return buffer.getInt(SIZE_OFFSET);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void force() {
+            long stamp = lock.readLock();
+            try {
+                buffer.force();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * <h2>tombstone 정리</h2>
+         * 원래 비어 있던 슬롯 다음부터 한 바퀴 돌면서, 각 레코드를 자기 탐색 경로에서 가장 앞의 빈 슬롯 또는 tombstone 으로 옮긴다.
+         * 옮긴 뒤에는 모든 레코드의 탐색 경로가 살아있는 레코드로만 이어지므로, tombstone 을 빈 슬롯으로 바꿔도 조회가 끊기지 않는다.
+         * 새 위치를 먼저 쓰고 원래 위치를 tombstone 으로 바꾼다.<br>
+         * 정리는 여러 번 나눠 쓰므로 중간에 프로세스가 죽으면 같은 레코드가 두 번 남는다. 조회는 앞의 레코드를 찾지만,
+         * 삭제하면 뒤의 레코드가 다시 보이고 findPageAfter 는 두 번 돌려준다. 그래서 시작할 때 purging 을 켜고 모두 끝낸 뒤에 끈다.
+         * 켜진 채로 남은 세그먼트는 다시 열 때 {@link #recoverPurge()}가 복구한다.
+         */
+        private void purgeDeleted() {
+            buffer.putInt(PURGING_OFFSET, 1);
+            int start = 0;
+            while (buffer.get(recordOffset(start)) != EMPTY) {
+                start++;
+            }
+            byte[] key = new byte[maxKeyBytes];
+            for (int i = 1; i <= capacity; i++) {
+                int slot = (start + i) % capacity;
+                int record = recordOffset(slot);
+                byte length = buffer.get(record);
+                if (length <= 0) {
+                    continue;
+                }
+                buffer.get(record + 1, key, 0, length - 1);
+                int target = MemberIdCodec.slot(MemberIdCodec.hash(key, 0, length - 1), capacity);
+                while (target != slot && buffer.get(recordOffset(target)) > 0) {
+                    if (++target == capacity) {
+                        target = 0;
+                    }
+                }
+                if (target == slot) {
+                    continue;
+                }
+                int targetRecord = recordOffset(target);
+                buffer.put(targetRecord + 1, key, 0, length - 1);
+                buffer.putInt(moneyOffset(target), buffer.getInt(moneyOffset(slot)));
+                buffer.put(targetRecord, length);
+                buffer.put(record, DELETED);
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                if (buffer.get(recordOffset(slot)) == DELETED) {
+                    buffer.put(recordOffset(slot), EMPTY);
+                }
+            }
+            buffer.putInt(USED_OFFSET, buffer.getInt(SIZE_OFFSET));
+            buffer.putInt(PURGING_OFFSET, 0);
+        }
+
+        /**
+         * <h2>중단된 정리 복구</h2>
+         * 정리는 빈 슬롯을 만들기 전에 모든 레코드를 옮기므로, 중단된 시점과 관계없이 탐색 경로가 빈 슬롯에서 끊기지 않는다.
+         * 남을 수 있는 것은 옮기던 레코드의 두 번째 레코드뿐이다.
+         * <ul>
+         *     <li>레코드마다 탐색 경로에서 처음 찾은 같은 id 가 자기가 아니면 두 번째 레코드이므로 tombstone 으로 바꾼다.</li>
+         *     <li>size 를 다시 세고 정리를 처음부터 다시 한다. 정리는 tombstone 이 어디 있든 맞게 동작한다.</li>
+         * </ul>
+         * 복구 도중 다시 죽어도 purging 이 켜져 있으므로 다음에 열 때 같은 복구를 반복한다.
+         */
+        void recoverPurge() {
+            if (buffer.getInt(PURGING_OFFSET) == 0) {
+                return;
+            }
+            int size = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                int record = recordOffset(slot);
+                byte length = buffer.get(record);
+                if (length <= 0) {
+                    continue;
+                }
+                byte[] key = new byte[length - 1];
+                buffer.get(record + 1, key);
+                if (indexOf(key, MemberIdCodec.hash(key)) != slot) {
+                    buffer.put(record, DELETED);
+                } else {
+                    size++;
+                }
+            }
+            buffer.putInt(SIZE_OFFSET, size);
+            purgeDeleted();
+        }
+
+        private long find(byte[] key, int hash) {
+            int slot = indexOf(key, hash);
+            return slot < 0 ? NOT_FOUND : buffer.getInt(moneyOffset(slot));
+        }
+
+        private int indexOf(byte[] key, int hash) {
+            byte keyLength = (byte) (key.length + 1);
+            int slot = MemberIdCodec.slot(hash, capacity);
+            for (int probe = 0; probe < capacity; probe++) {
+                byte length = buffer.get(recordOffset(slot));
+                if (length == EMPTY) {
+                    return -1;
+                }
+                if (length == keyLength && keyEquals(slot, key)) {
+                    return slot;
+                }
+                if (++slot == capacity) {
+                    slot = 0;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return 비어있는 슬롯(삭제된 슬롯 우선), 이미 있으면 {@code -(기존 슬롯) - 1}
+         */
+        private int insertionSlot(byte[] key, int hash) {
+            byte keyLength = (byte) (key.length + 1);
+            int slot = MemberIdCodec.slot(hash, capacity);
+            int firstDeleted = -1;
+            for (int probe = 0; probe < capacity; probe++) {
+                byte length = buffer.get(recordOffset(slot));
+                if (length == EMPTY) {
+                    return firstDeleted >= 0 ? firstDeleted : slot;
+                }
+                if (length == DELETED) {
+                    if (firstDeleted < 0) {
+                        firstDeleted = slot;
+                    }
+                } else if (length == keyLength && keyEquals(slot, key)) {
+                    return -slot - 1;
+                }
+                if (++slot == capacity) {
+                    slot = 0;
+                }
+            }
+            if (firstDeleted >= 0) {
+                return firstDeleted;
+            }
+            throw new IllegalStateException("member store is full");
+        }
+
+        private boolean keyEquals(int slot, byte[] key) {
+            int offset = recordOffset(slot) + 1;
+            for (int i = 0; i < key.length; i++) {
+                if (buffer.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int recordOffset(int slot) {
+            return SEGMENT_HEADER_BYTES + slot * recordBytes;
+        }
+
+        private int moneyOffset(int slot) {
+            return recordOffset(slot) + 1 + maxKeyBytes;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package thespeace.jdbc.repository.memory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h2>회원 id 인코딩, 해시</h2>
+ * 메모리 저장소는 id 를 String 객체로 보관하지 않고 UTF-8 바이트로 고정 폭 슬롯에 저장한다.
+ * member_id 는 {@code varchar(10)}이므로 UTF-8 로 최대 30바이트다.
+ */
+final class MemberIdCodec {
+
+    /**
+     * varchar(10)을 UTF-8 로 인코딩했을 때의 최대 길이
+     */
+    static final int MAX_KEY_BYTES = 30;
+
+    private MemberIdCodec() {
+    }
+
+    static byte[] encode(String memberId, int maxKeyBytes) {
+        byte[] key = memberId.getBytes(StandardCharsets.UTF_8);
+        if (key.length > maxKeyBytes) {
+            throw new IllegalArgumentException("memberId is longer than " + maxKeyBytes + " bytes: " + memberId);
+        }
+        return key;
+    }
+
+    /**
+     * 조회, 수정, 삭제용 인코딩. maxKeyBytes 보다 긴 id 는 저장할 수 없으므로 저장소에 있을 수 없다.
+     * 예외를 던지지 않고 {@code null}을 돌려주며, 호출하는 쪽은 회원이 없는 것으로 처리한다. (DB 에서 없는 id 를 조회한 것과 같다)
+     */
+    static byte[] encodeForLookup(String memberId, int maxKeyBytes) {
+        byte[] key = memberId.getBytes(StandardCharsets.UTF_8);
+        return key.length > maxKeyBytes ? null : key;
+    }
+
+    static String decode(byte[] bytes, int offset, int length) {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * FNV-1a 에 murmur3 finalizer 를 더해서 상위/하위 비트가 모두 고르게 섞이도록 한다.
+     * 하위 비트는 세그먼트 선택, 상위 비트는 세그먼트 안의 슬롯 선택에 사용한다.
+     */
+    static int hash(byte[] key) {
+        return hash(key, 0, key.length);
+    }
+
+    static int hash(byte[] bytes, int offset, int length) {
+        int h = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * 2의 제곱수가 아닌 capacity 에도 나눗셈 없이 [0, capacity) 범위로 줄인다. (hash 의 상위 비트 사용)
+     */
+    static int slot(int hash, int capacity) {
+        return (int) (((hash & 0xffffffffL) * capacity) >>> 32);
+    }
+}
@@ -0,0 +1,577 @@
+package thespeace.jdbc.repository.memory;
+
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberPage;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.TransferResult;
+import thespeace.jdbc.repository.ex.MyDuplicateKeyException;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <h1>메모리 회원 저장소 - primitive open addressing 해시 테이블</h1>
+ * H2 를 사용하지 않는 MemberRepository 구현체다. 테스트, 벤치마크, 자주 조회되는 잔액을 메모리에 두는 용도로 사용한다.
+ * MemberRepository 인터페이스만 의존하는 {@code MemberServiceV4}에 그대로 주입할 수 있다.<br><br>
+ *
+ * <h2>메모리 구조</h2>
+ * {@code HashMap<String, Member>}는 회원 하나마다 Node, String, byte[], Member 객체를 만든다.
+ * 1억 명이면 객체 수억 개와 객체 헤더 비용이 생긴다. 이 저장소는 회원마다 객체를 만들지 않는다.
+ * <ul>
+ *     <li>id 는 UTF-8 바이트로 고정 폭({@code maxKeyBytes}) 슬롯에 저장한다. ({@code byte[] keys})</li>
+ *     <li>잔액은 boxing 없이 {@code int[] money}에 저장한다.</li>
+ *     <li>슬롯 상태는 {@code byte[] lengths}에 저장한다. 0 = 빈 슬롯, -1 = 삭제된 슬롯, 그 외 = id 길이 + 1</li>
+ *     <li>충돌은 linear probing 으로 해결한다. 배열 크기는 2의 제곱수로 맞추지 않아서 낭비가 없다.</li>
+ * </ul>
+ * 슬롯 하나는 {@code maxKeyBytes + 5} 바이트다. id 가 10자 이하 ASCII 라면 maxKeyBytes 를 10으로 지정해서
+ * 1억 명을 약 2GB(load factor 0.75 기준)에 담을 수 있다. expectedSize 를 지정하면 처음부터 그 크기로 만들어서
+ * 재해시가 일어나지 않는다.<br><br>
+ *
+ * <h2>동시성</h2>
+ * 해시 값으로 세그먼트를 나누고(lock striping), 세그먼트마다 {@code StampedLock}을 둔다.
+ * <ul>
+ *     <li>조회는 락 없이 optimistic read 로 읽고, 그 사이 쓰기가 있었으면 read lock 을 잡고 다시 읽는다.</li>
+ *     <li>쓰기는 세그먼트의 write lock 을 잡는다. adjustBalance 는 write lock 안에서 조건 확인과 변경을 함께 하므로 원자적이다.</li>
+ * </ul>
+ * 트랜잭션은 지원하지 않는다. {@code @Transactional}이 롤백되어도 이미 반영된 변경은 되돌리지 않는다.
+ */
+public class MemoryMemberRepository implements MemberRepository {
+
+    private static final int DEFAULT_SEGMENT_COUNT = 64;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    static final long NOT_FOUND = Long.MIN_VALUE;
+
+    private static final byte EMPTY = 0;
+    private static final byte DELETED = -1;
+
+    private final int maxKeyBytes;
+    private final int maxSegmentCapacity;
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    public MemoryMemberRepository() {
+        this(MemberIdCodec.MAX_KEY_BYTES, DEFAULT_SEGMENT_COUNT, 0);
+    }
+
+    /**
+     * @param maxKeyBytes  UTF-8 로 인코딩한 id 의 최대 바이트 수 (1 ~ 126)
+     * @param segmentCount 세그먼트(락) 수, 2의 제곱수
+     * @param expectedSize 예상 회원 수, 미리 이 크기만큼 공간을 잡는다.
+     */
+    public MemoryMemberRepository(int maxKeyBytes, int segmentCount, long expectedSize) {
+        if (maxKeyBytes <= 0 || maxKeyBytes > 126) {
+            throw new IllegalArgumentException("maxKeyBytes must be between 1 and 126: " + maxKeyBytes);
+        }
+        if (segmentCount <= 0 || Integer.bitCount(segmentCount) != 1) {
+            throw new IllegalArgumentException("segmentCount must be a power of two: " + segmentCount);
+        }
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative: " + expectedSize);
+        }
+        this.maxKeyBytes = maxKeyBytes;
+        this.maxSegmentCapacity = (Integer.MAX_VALUE - 8) / maxKeyBytes;
+        this.segmentMask = segmentCount - 1;
+        this.segments = new Segment[segmentCount];
+        int capacity = capacityFor(expectedSize / segmentCount + 1);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    @Override
+    public Member save(Member member) {
+        byte[] key = encode(member.getMemberId());
+        int hash = MemberIdCodec.hash(key);
+        if (!segment(hash).put(key, hash, member.getMoney(), false)) {
+            throw new MyDuplicateKeyException("duplicate memberId=" + member.getMemberId());
+        }
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        long money = get(memberId);
+        if (money == NOT_FOUND) {
+            throw new NoSuchElementException("member not found memberId=" + memberId);
+        }
+        return new Member(memberId, (int) money);
+    }
+
+    /**
+     * 트랜잭션이 없으므로 잠글 것이 없다. findById 와 같다.
+     */
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findById(memberId);
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        long money = get(memberId);
+        return money == NOT_FOUND ? Optional.empty() : Optional.of(new Member(memberId, (int) money));
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return get(memberId) != NOT_FOUND;
+    }
+
+    /**
+     * DB 의 update 처럼 회원이 없으면 아무것도 하지 않는다.
+     */
+    @Override
+    public void update(String memberId, int money) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return;
+        }
+        int hash = MemberIdCodec.hash(key);
+        segment(hash).replace(key, hash, money);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return;
+        }
+        int hash = MemberIdCodec.hash(key);
+        segment(hash).remove(key, hash);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        for (Member member : members) {
+            save(member);
+        }
+    }
+
+    @Override
+    public void updateAll(Collection<Member> members) {
+        for (Member member : members) {
+            update(member.getMemberId(), member.getMoney());
+        }
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        for (String memberId : memberIds) {
+            long money = get(memberId);
+            if (money != NOT_FOUND) {
+                result.put(memberId, new Member(memberId, (int) money));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 해시 테이블에는 순서가 없으므로 모든 세그먼트를 훑어서 lastMemberId 다음의 id 를 limit + 1 개까지 고른다.
+     * 비용은 O(n log limit)이다. 리포트처럼 가끔 쓰는 용도이며, 조회/변경 경로의 성능에는 영향이 없다.
+     */
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        MemberPage.checkLimit(limit);
+        String lastMemberId = MemberPage.decodeToken(pageToken);
+
+        //id 가 가장 큰 회원이 head 에 오도록 해서 limit + 1 개의 가장 작은 id 만 남긴다.
+        PriorityQueue<Member> candidates = new PriorityQueue<>(Comparator.comparing(Member::getMemberId).reversed());
+        for (Segment segment : segments) {
+            segment.collectAfter(lastMemberId, limit + 1, candidates);
+        }
+
+        List<Member> members = new ArrayList<>(candidates);
+        members.sort(Comparator.comparing(Member::getMemberId));
+        return MemberPage.of(members, limit);
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        byte[] key = encode(member.getMemberId());
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).put(key, hash, member.getMoney(), true);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        byte[] key = encode(member.getMemberId());
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).put(key, hash, member.getMoney(), false);
+    }
+
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return false;
+        }
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).adjust(key, hash, delta, minBalance);
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        int applied = 0;
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            if (adjustBalance(entry.getKey(), entry.getValue(), minBalance)) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * 두 세그먼트를 함께 잠그지 않는다. 출금 후 입금하고, 그 사이 입금 계좌가 삭제되었으면 출금을 되돌린다.
+     * 다른 쓰레드가 출금만 된 중간 상태를 잠깐 볼 수 있다.
+     */
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        TransferResult.checkArguments(fromId, toId, money);
+        if (!existsById(toId) || !adjustBalance(fromId, -money, 0)) {
+            return Optional.empty();
+        }
+        if (!adjustBalance(toId, money, Integer.MIN_VALUE)) {
+            adjustBalance(fromId, money, Integer.MIN_VALUE);
+            return Optional.empty();
+        }
+        return Optional.of(new TransferResult(findById(fromId), findById(toId)));
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    int maxKeyBytes() {
+        return maxKeyBytes;
+    }
+
+    /**
+     * 인코딩된 id 로 잔액을 조회한다. 없으면 {@link #NOT_FOUND}
+     */
+    long getEntry(byte[] key) {
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).get(key, hash);
+    }
+
+    /**
+     * 복구용, 있으면 덮어쓰고 없으면 추가한다.
+     */
+    void putEntry(byte[] key, int money) {
+        int hash = MemberIdCodec.hash(key);
+        segment(hash).put(key, hash, money, true);
+    }
+
+    void removeEntry(byte[] key) {
+        int hash = MemberIdCodec.hash(key);
+        segment(hash).remove(key, hash);
+    }
+
+    /**
+     * 세그먼트 단위로 read lock 을 잡고 모든 회원을 방문한다. 세그먼트 사이에는 다른 쓰레드의 변경이 끼어들 수 있다. (fuzzy)
+     */
+    void forEachEntry(EntryVisitor visitor) {
+        for (Segment segment : segments) {
+            segment.forEachEntry(visitor);
+        }
+    }
+
+    /**
+     * id 바이트는 {@code keys[offset, offset + length)}에 있다. 배열은 방문이 끝나면 재사용되므로 보관하면 안 된다.
+     */
+    interface EntryVisitor {
+        void visit(byte[] keys, int offset, int length, int money);
+    }
+
+    private long get(String memberId) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return NOT_FOUND;
+        }
+        int hash = MemberIdCodec.hash(key);
+        return segment(hash).get(key, hash);
+    }
+
+    private byte[] encode(String memberId) {
+        return MemberIdCodec.encode(memberId, maxKeyBytes);
+    }
+
+    private byte[] lookupKey(String memberId) {
+        return MemberIdCodec.encodeForLookup(memberId, maxKeyBytes);
+    }
+
+    private Segment segment(int hash) {
+        return segments[hash & segmentMask];
+    }
+
+    /**
+     * load factor 0.75 로 size 개를 담을 수 있는 슬롯 수
+     */
+    private int capacityFor(long size) {
+        long capacity = Math.max(MIN_SEGMENT_CAPACITY, size * 4 / 3 + 1);
+        if (capacity > maxSegmentCapacity) {
+            throw new IllegalStateException("segment capacity exceeded: " + capacity + " > " + maxSegmentCapacity);
+        }
+        return (int) capacity;
+    }
+
+    /**
+     * 재해시할 때 배열 세 개를 한 번에 교체하기 위해 하나의 객체로 묶는다.
+     * optimistic read 중에 교체되더라도 읽은 배열끼리는 크기가 일치한다.
+     */
+    private static final class Table {
+
+        final int capacity;
+        final byte[] lengths;
+        final byte[] keys;
+        final int[] money;
+
+        Table(int capacity, int maxKeyBytes) {
+            this.capacity = capacity;
+            this.lengths = new byte[capacity];
+            this.keys = new byte[capacity * maxKeyBytes];
+            this.money = new int[capacity];
+        }
+    }
+
+    private final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private Table table;
+        private int size;
+        private int used; //size + 삭제된 슬롯 수
+
+        Segment(int capacity) {
+            this.table = new Table(capacity, maxKeyBytes);
+        }
+
+        long get(byte[] key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            long money = find(table, key, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    money = find(table, key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return money;
+        }
+
+        /**
+         * @param overwrite 이미 있으면 잔액을 덮어쓸지 여부
+         * @return 새로 추가했으면 {@code true}
+         */
+        boolean put(byte[] key, int hash, int money, boolean overwrite) {
+            long stamp = lock.writeLock();
+            try {
+                if (used + 1 > table.capacity / 4 * 3) {
+                    rehash();
+                }
+                Table t = table;
+                int slot = insertionSlot(t, key, hash);
+                if (slot < 0) {
+                    if (overwrite) {
+                        t.money[-slot - 1] = money;
+                    }
+                    return false;
+                }
+                if (t.lengths[slot] == EMPTY) {
+                    used++;
+                }
+                System.arraycopy(key, 0, t.keys, slot * maxKeyBytes, key.length);
+                t.money[slot] = money;
+                t.lengths[slot] = (byte) (key.length + 1);
+                size++;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void replace(byte[] key, int hash, int money) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(table, key, hash);
+                if (slot >= 0) {
+                    table.money[slot] = money;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean adjust(byte[] key, int hash, int delta, int minBalance) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(table, key, hash);
+                if (slot < 0) {
+                    return false;
+                }
+                long money = (long) table.money[slot] + delta;
+                if (money < minBalance) {
+                    return false;
+                }
+                table.money[slot] = Math.toIntExact(money);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void remove(byte[] key, int hash) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(table, key, hash);
+                if (slot >= 0) {
+                    table.lengths[slot] = DELETED;
+                    size--;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void collectAfter(String lastMemberId, int limit, PriorityQueue<Member> candidates) {
+            long stamp = lock.readLock();
+            try {
+                Table t = table;
+                for (int i = 0; i < t.capacity; i++) {
+                    byte length = t.lengths[i];
+                    if (length <= 0) {
+                        continue;
+                    }
+                    String memberId = MemberIdCodec.decode(t.keys, i * maxKeyBytes, length - 1);
+                    if (lastMemberId != null && memberId.compareTo(lastMemberId) <= 0) {
+                        continue;
+                    }
+                    if (candidates.size() < limit) {
+                        candidates.add(new Member(memberId, t.money[i]));
+                    } else if (memberId.compareTo(candidates.peek().getMemberId()) < 0) {
+                        candidates.poll();
+                        candidates.add(new Member(memberId, t.money[i]));
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void forEachEntry(EntryVisitor visitor) {
+            long stamp = lock.readLock();
+            try {
+                Table t = table;
+                for (int i = 0; i < t.capacity; i++) {
+                    byte length = t.lengths[i];
+                    if (length > 0) {
+                        visitor.visit(t.keys, i * maxKeyBytes, length - 1, t.money[i]);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private long find(Table t, byte[] key, int hash) {
+            int slot = indexOf(t, key, hash);
+            return slot < 0 ? NOT_FOUND : t.money[slot];
+        }
+
+        /**
+         * optimistic read 중에는 테이블이 변경되고 있을 수 있으므로 탐색 횟수를 capacity 로 제한한다.
+         */
+        private int indexOf(Table t, byte[] key, int hash) {
+            int capacity = t.capacity;
+            byte keyLength = (byte) (key.length + 1);
+            int slot = MemberIdCodec.slot(hash, capacity);
+            for (int probe = 0; probe < capacity; probe++) {
+                byte length = t.lengths[slot];
+                if (length == EMPTY) {
+                    return -1;
+                }
+                if (length == keyLength && keyEquals(t, slot, key)) {
+                    return slot;
+                }
+                if (++slot == capacity) {
+                    slot = 0;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return 비어있는 슬롯(삭제된 슬롯 우선), 이미 있으면 {@code -(기존 슬롯) - 1}
+         */
+        private int insertionSlot(Table t, byte[] key, int hash) {
+            int capacity = t.capacity;
+            byte keyLength = (byte) (key.length + 1);
+            int slot = MemberIdCodec.slot(hash, capacity);
+            int firstDeleted = -1;
+            for (int probe = 0; probe < capacity; probe++) {
+                byte length = t.lengths[slot];
+                if (length == EMPTY) {
+                    return firstDeleted >= 0 ? firstDeleted : slot;
+                }
+                if (length == DELETED) {
+                    if (firstDeleted < 0) {
+                        firstDeleted = slot;
+                    }
+                } else if (length == keyLength && keyEquals(t, slot, key)) {
+                    return -slot - 1;
+                }
+                if (++slot == capacity) {
+                    slot = 0;
+                }
+            }
+            if (firstDeleted >= 0) {
+                return firstDeleted;
+            }
+            throw new IllegalStateException("segment is full");
+        }
+
+        private boolean keyEquals(Table t, int slot, byte[] key) {
+            int offset = slot * maxKeyBytes;
+            return Arrays.equals(t.keys, offset, offset + key.length, key, 0, key.length);
+        }
+
+        /**
+         * 삭제된 슬롯을 정리하면서 현재 size 의 두 배를 담을 수 있는 크기로 다시 만든다.
+         */
+        private void rehash() {
+            Table old = table;
+            Table t = new Table(capacityFor((long) (size + 1) * 2), maxKeyBytes);
+            for (int i = 0; i < old.capacity; i++) {
+                byte length = old.lengths[i];
+                if (length <= 0) {
+                    continue;
+                }
+                int keyOffset = i * maxKeyBytes;
+                int hash = MemberIdCodec.hash(old.keys, keyOffset, length - 1);
+                int slot = MemberIdCodec.slot(hash, t.capacity);
+                while (t.lengths[slot] != EMPTY) {
+                    if (++slot == t.capacity) {
+                        slot = 0;
+                    }
+                }
+                System.arraycopy(old.keys, keyOffset, t.keys, slot * maxKeyBytes, length - 1);
+                t.money[slot] = old.money[i];
+                t.lengths[slot] = length;
+            }
+            table = t;
+            used = size;
+        }
+    }
+}
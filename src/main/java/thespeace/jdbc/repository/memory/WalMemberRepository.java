@@ -0,0 +1,921 @@
+package thespeace.jdbc.repository.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberPage;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.TransferResult;
+import thespeace.jdbc.repository.ex.MyDbException;
+import thespeace.jdbc.repository.ex.MyDuplicateKeyException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * <h1>WAL(write-ahead log) + 스냅샷으로 영속화한 메모리 회원 저장소</h1>
+ * {@link MemoryMemberRepository}는 프로세스가 종료되면 데이터가 사라진다. 그렇다고 변경마다 H2 에 동기로 쓰면
+ * 메모리 저장소를 쓰는 의미가 없다. 이 리포지토리는 변경을 로그 파일에 순서대로 추가(append)하고,
+ * 로그가 디스크에 기록된(fsync) 뒤에 호출자에게 반환한다.<br><br>
+ *
+ * <h2>WAL</h2>
+ * <ul>
+ *     <li>레코드: {@code [payload 길이 4B][CRC32C 4B][type 1B][id 길이 1B][id][money 4B(PUT 만)]}</li>
+ *     <li>레코드는 "잔액을 얼마만큼 바꿨다"가 아니라 "잔액이 얼마가 되었다"(PUT), "삭제되었다"(DELETE)를 기록한다.
+ *         같은 레코드를 두 번 적용해도 결과가 같아서(멱등) 스냅샷과 로그가 겹쳐도 문제가 없다.</li>
+ *     <li>같은 id 의 변경은 lock stripe 안에서 로그를 먼저 추가하고, 추가에 성공한 뒤에 메모리에 반영한다.
+ *         로그 순서가 반영 순서와 같고, 로그 추가가 실패하면(저장소가 닫혔거나 쓰기 실패) 메모리는 바뀌지 않는다.</li>
+ *     <li>transfer 는 두 회원의 변경 후 잔액을 TRANSFER 레코드 하나로 기록한다.
+ *         {@code [type 1B][id 길이 1B][from id][money 4B][id 길이 1B][to id][money 4B]}
+ *         CRC 가 레코드 전체를 덮으므로 복구 후 한쪽만 반영되는 경우는 없다.</li>
+ * </ul>
+ *
+ * <h2>그룹 커밋(group commit)</h2>
+ * 쓰기 쓰레드는 레코드를 direct buffer 에 추가만 하고 기다린다. flusher 쓰레드가 버퍼를 통째로 {@code FileChannel}에 쓰고
+ * {@code force} 한 번으로 그동안 쌓인 모든 레코드를 디스크에 기록한다. fsync 하는 동안에는 다른 버퍼에 다음 레코드가 쌓인다.
+ * (double buffering) 동시 쓰기가 많을수록 fsync 한 번에 더 많은 변경이 기록된다.
+ *
+ * <h2>스냅샷, 복구</h2>
+ * <ul>
+ *     <li>로그 파일({@code wal-N.log})이 maxWalBytes 를 넘으면 새 파일({@code wal-N+1.log})로 바꾸고,
+ *         백그라운드에서 전체 회원을 스냅샷({@code snapshot-N.dat})으로 기록한다. 스냅샷을 만드는 동안에도 쓰기는 계속된다.
+ *         (fuzzy snapshot) 이후 변경은 모두 wal-N+1 이후 파일에 있고, 레코드가 멱등이므로 다시 적용해도 된다.</li>
+ *     <li>스냅샷은 임시 파일에 쓰고 fsync 한 뒤 이름을 바꾼다.(atomic rename) 그 다음 wal-N 이하, 이전 스냅샷을 지운다.</li>
+ *     <li>시작할 때 가장 최근 스냅샷을 적재하고 그 이후 로그를 순서대로 다시 적용한다. 마지막 로그 파일 끝의
+ *         쓰다 만 레코드(길이 또는 CRC 불일치)는 잘라낸다. 호출자에게 반환되지 않은 변경이므로 버려도 된다.</li>
+ * </ul>
+ * 트랜잭션은 지원하지 않는다. 쓰기 메서드는 자신의 레코드가 fsync 된 뒤에 반환하지만, 메모리 반영은 fsync 를 기다리지 않는다.
+ * 그 사이 다른 쓰레드의 조회는 아직 디스크에 기록되지 않은 변경을 볼 수 있고, 그 상태에서 프로세스가 종료되면 본 값이 사라질 수 있다.
+ */
+@Slf4j
+public class WalMemberRepository implements MemberRepository, Closeable {
+
+    private static final long DEFAULT_MAX_WAL_BYTES = 64L * 1024 * 1024;
+    private static final int BUFFER_BYTES = 1024 * 1024;
+    private static final int LOCK_STRIPES = 1024;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte TRANSFER = 3;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_PAYLOAD_BYTES = 1 + 2 * (1 + 126 + 4);
+
+    private static final String WAL_PREFIX = "wal-";
+    private static final String WAL_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final int SNAPSHOT_MAGIC = 0x4d534e50; //"MSNP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 16;
+    private static final int SNAPSHOT_FOOTER_BYTES = 1 + 8 + 4;
+
+    private final Path directory;
+    private final MemoryMemberRepository store;
+    private final long maxWalBytes;
+    private final Object[] stripes = new Object[LOCK_STRIPES];
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition flushRequested = appendLock.newCondition();
+    private final Condition flushed = appendLock.newCondition();
+    private ByteBuffer active = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private ByteBuffer flushing = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private long appendedLsn;
+    private long durableLsn;
+    private long walSequence; //flusher 쓰레드만 변경, lastSnapshot 과 함께 갱신
+    private boolean rotateRequested;
+    private boolean closed;
+    private IOException failure;
+    private Future<?> lastSnapshot;
+
+    private FileChannel wal; //flusher 쓰레드만 사용
+    private long walBytes;
+    private final Thread flusher;
+    private final ExecutorService snapshotExecutor;
+
+    public WalMemberRepository(Path directory) {
+        this(directory, new MemoryMemberRepository(), DEFAULT_MAX_WAL_BYTES);
+    }
+
+    /**
+     * @param store       비어있는 메모리 저장소, 크기를 미리 잡아두면 복구가 빨라진다.
+     * @param maxWalBytes 로그 파일을 바꾸고 스냅샷을 만드는 기준 크기
+     */
+    public WalMemberRepository(Path directory, MemoryMemberRepository store, long maxWalBytes) {
+        if (maxWalBytes <= 0) {
+            throw new IllegalArgumentException("maxWalBytes must be positive: " + maxWalBytes);
+        }
+        if (store.size() != 0) {
+            throw new IllegalArgumentException("store must be empty");
+        }
+        this.directory = directory;
+        this.store = store;
+        this.maxWalBytes = maxWalBytes;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+
+        try {
+            Files.createDirectories(directory);
+            walSequence = recover() + 1;
+            openWal(walSequence);
+        } catch (IOException e) {
+            throw new MyDbException("failed to recover member store: " + directory, e);
+        }
+
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "member-wal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher = new Thread(this::flushLoop, "member-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public Member save(Member member) {
+        byte[] key = encode(member.getMemberId());
+        long lsn;
+        synchronized (stripe(key)) {
+            if (store.getEntry(key) != MemoryMemberRepository.NOT_FOUND) {
+                throw new MyDuplicateKeyException("duplicate memberId=" + member.getMemberId());
+            }
+            lsn = append(PUT, key, member.getMoney());
+            store.putEntry(key, member.getMoney());
+        }
+        awaitDurable(lsn);
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return store.findById(memberId);
+    }
+
+    /**
+     * 트랜잭션이 없으므로 잠글 것이 없다. findById 와 같다.
+     */
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findById(memberId);
+    }
+
+    @Override
+    public Optional<Member> findOptionalById(String memberId) {
+        return store.findOptionalById(memberId);
+    }
+
+    @Override
+    public boolean existsById(String memberId) {
+        return store.existsById(memberId);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return;
+        }
+        long lsn;
+        synchronized (stripe(key)) {
+            if (store.getEntry(key) == MemoryMemberRepository.NOT_FOUND) {
+                return;
+            }
+            lsn = append(PUT, key, money);
+            store.putEntry(key, money);
+        }
+        awaitDurable(lsn);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return;
+        }
+        long lsn;
+        synchronized (stripe(key)) {
+            if (store.getEntry(key) == MemoryMemberRepository.NOT_FOUND) {
+                return;
+            }
+            lsn = append(DELETE, key, 0);
+            store.removeEntry(key);
+        }
+        awaitDurable(lsn);
+    }
+
+    /**
+     * 회원마다 기다리지 않고 마지막 레코드가 기록될 때 한 번만 기다린다.
+     */
+    @Override
+    public void saveAll(Collection<Member> members) {
+        long lsn = 0;
+        try {
+            for (Member member : members) {
+                byte[] key = encode(member.getMemberId());
+                synchronized (stripe(key)) {
+                    if (store.getEntry(key) != MemoryMemberRepository.NOT_FOUND) {
+                        throw new MyDuplicateKeyException("duplicate memberId=" + member.getMemberId());
+                    }
+                    lsn = append(PUT, key, member.getMoney());
+                    store.putEntry(key, member.getMoney());
+                }
+            }
+        } finally {
+            if (lsn > 0) {
+                awaitDurable(lsn);
+            }
+        }
+    }
+
+    /**
+     * saveAll 과 마찬가지로 마지막 레코드가 기록될 때 한 번만 기다린다.
+     */
+    @Override
+    public void updateAll(Collection<Member> members) {
+        long lsn = 0;
+        try {
+            for (Member member : members) {
+                byte[] key = lookupKey(member.getMemberId());
+                if (key == null) {
+                    continue;
+                }
+                synchronized (stripe(key)) {
+                    if (store.getEntry(key) == MemoryMemberRepository.NOT_FOUND) {
+                        continue;
+                    }
+                    lsn = append(PUT, key, member.getMoney());
+                    store.putEntry(key, member.getMoney());
+                }
+            }
+        } finally {
+            if (lsn > 0) {
+                awaitDurable(lsn);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        return store.findAllById(memberIds);
+    }
+
+    @Override
+    public MemberPage findPageAfter(String pageToken, int limit) {
+        return store.findPageAfter(pageToken, limit);
+    }
+
+    @Override
+    public boolean saveOrUpdate(Member member) {
+        byte[] key = encode(member.getMemberId());
+        boolean inserted;
+        long lsn;
+        synchronized (stripe(key)) {
+            inserted = store.getEntry(key) == MemoryMemberRepository.NOT_FOUND;
+            lsn = append(PUT, key, member.getMoney());
+            store.putEntry(key, member.getMoney());
+        }
+        awaitDurable(lsn);
+        return inserted;
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        byte[] key = encode(member.getMemberId());
+        long lsn;
+        synchronized (stripe(key)) {
+            if (store.getEntry(key) != MemoryMemberRepository.NOT_FOUND) {
+                return false;
+            }
+            lsn = append(PUT, key, member.getMoney());
+            store.putEntry(key, member.getMoney());
+        }
+        awaitDurable(lsn);
+        return true;
+    }
+
+    /**
+     * 변경 후의 잔액을 PUT 레코드로 기록한다.
+     */
+    @Override
+    public boolean adjustBalance(String memberId, int delta, int minBalance) {
+        byte[] key = lookupKey(memberId);
+        if (key == null) {
+            return false;
+        }
+        long lsn;
+        synchronized (stripe(key)) {
+            long money = adjustedMoney(key, delta, minBalance);
+            if (money == MemoryMemberRepository.NOT_FOUND) {
+                return false;
+            }
+            lsn = append(PUT, key, (int) money);
+            store.putEntry(key, (int) money);
+        }
+        awaitDurable(lsn);
+        return true;
+    }
+
+    @Override
+    public int adjustAll(Map<String, Integer> deltas, int minBalance) {
+        int applied = 0;
+        long lsn = 0;
+        try {
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                byte[] key = lookupKey(entry.getKey());
+                if (key == null) {
+                    continue;
+                }
+                synchronized (stripe(key)) {
+                    long money = adjustedMoney(key, entry.getValue(), minBalance);
+                    if (money == MemoryMemberRepository.NOT_FOUND) {
+                        continue;
+                    }
+                    lsn = append(PUT, key, (int) money);
+                    store.putEntry(key, (int) money);
+                    applied++;
+                }
+            }
+        } finally {
+            if (lsn > 0) {
+                awaitDurable(lsn);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * 두 회원의 stripe 를 항상 같은 순서(stripe 번호 순)로 잡아서 교착 상태를 피한다.
+     */
+    @Override
+    public Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        TransferResult.checkArguments(fromId, toId, money);
+        byte[] fromKey = lookupKey(fromId);
+        byte[] toKey = lookupKey(toId);
+        if (fromKey == null || toKey == null) {
+            return Optional.empty();
+        }
+        int fromStripe = stripeIndex(fromKey);
+        int toStripe = stripeIndex(toKey);
+        TransferResult result;
+        long lsn;
+        synchronized (stripes[Math.min(fromStripe, toStripe)]) {
+            synchronized (stripes[Math.max(fromStripe, toStripe)]) {
+                long fromMoney = store.getEntry(fromKey);
+                long toMoney = store.getEntry(toKey);
+                if (fromMoney == MemoryMemberRepository.NOT_FOUND || toMoney == MemoryMemberRepository.NOT_FOUND
+                        || fromMoney < money) {
+                    return Optional.empty();
+                }
+                fromMoney -= money;
+                toMoney = Math.toIntExact(toMoney + money);
+                lsn = appendTransfer(fromKey, (int) fromMoney, toKey, (int) toMoney);
+                store.putEntry(fromKey, (int) fromMoney);
+                store.putEntry(toKey, (int) toMoney);
+                result = new TransferResult(new Member(fromId, (int) fromMoney), new Member(toId, (int) toMoney));
+            }
+        }
+        awaitDurable(lsn);
+        return Optional.of(result);
+    }
+
+    public long size() {
+        return store.size();
+    }
+
+    /**
+     * 로그 파일을 바꾸고 스냅샷이 기록될 때까지 기다린다. 이후 재시작은 스냅샷만 적재하면 된다.
+     */
+    public void checkpoint() {
+        Future<?> snapshot;
+        appendLock.lock();
+        try {
+            checkOpen();
+            long target = walSequence + 1;
+            rotateRequested = true;
+            flushRequested.signal();
+            while (walSequence < target) {
+                checkFailure();
+                flushed.awaitUninterruptibly();
+            }
+            snapshot = lastSnapshot;
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            snapshot.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MyDbException(e);
+        } catch (ExecutionException e) {
+            throw new MyDbException(e.getCause());
+        }
+    }
+
+    /**
+     * 남은 로그를 기록하고, 진행 중인 스냅샷을 기다린 뒤 파일을 닫는다.
+     */
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flushRequested.signal();
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            flusher.join();
+            snapshotExecutor.shutdown();
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            wal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MyDbException(e);
+        } catch (IOException e) {
+            throw new MyDbException(e);
+        }
+    }
+
+    /**
+     * 변경 후의 잔액, 회원이 없거나 minBalance 보다 작아지면 {@link MemoryMemberRepository#NOT_FOUND}
+     * 호출하는 쪽이 stripe 를 잡고 있어야 한다. 범위를 넘으면 로그를 추가하기 전에 예외가 발생한다.
+     */
+    private long adjustedMoney(byte[] key, int delta, int minBalance) {
+        long money = store.getEntry(key);
+        if (money == MemoryMemberRepository.NOT_FOUND) {
+            return money;
+        }
+        money += delta;
+        if (money < minBalance) {
+            return MemoryMemberRepository.NOT_FOUND;
+        }
+        return Math.toIntExact(money);
+    }
+
+    private long append(byte type, byte[] key, int money) {
+        //CRC 계산은 락 밖에서 한다.
+        int payloadBytes = 2 + key.length + (type == PUT ? 4 : 0);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadBytes);
+        record.position(RECORD_HEADER_BYTES);
+        record.put(type).put((byte) key.length).put(key);
+        if (type == PUT) {
+            record.putInt(money);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER_BYTES, payloadBytes);
+        record.putInt(0, payloadBytes).putInt(4, (int) crc.getValue());
+        record.flip();
+        return append(record);
+    }
+
+    private long appendTransfer(byte[] fromKey, int fromMoney, byte[] toKey, int toMoney) {
+        int payloadBytes = 1 + (1 + fromKey.length + 4) + (1 + toKey.length + 4);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadBytes);
+        record.position(RECORD_HEADER_BYTES);
+        record.put(TRANSFER)
+                .put((byte) fromKey.length).put(fromKey).putInt(fromMoney)
+                .put((byte) toKey.length).put(toKey).putInt(toMoney);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER_BYTES, payloadBytes);
+        record.putInt(0, payloadBytes).putInt(4, (int) crc.getValue());
+        record.flip();
+        return append(record);
+    }
+
+    private long append(ByteBuffer record) {
+        appendLock.lock();
+        try {
+            while (true) {
+                checkOpen();
+                if (active.remaining() >= record.remaining()) {
+                    break;
+                }
+                flushRequested.signal();
+                flushed.awaitUninterruptibly();
+            }
+            active.put(record);
+            appendedLsn += record.limit();
+            flushRequested.signal();
+            return appendedLsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void awaitDurable(long lsn) {
+        appendLock.lock();
+        try {
+            while (durableLsn < lsn) {
+                checkFailure();
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer buffer;
+            long lsn;
+            boolean rotate;
+            appendLock.lock();
+            try {
+                while (active.position() == 0 && !closed && !rotateRequested) {
+                    flushRequested.awaitUninterruptibly();
+                }
+                if (active.position() == 0 && closed) {
+                    return;
+                }
+                buffer = active;
+                active = flushing;
+                flushing = buffer;
+                lsn = appendedLsn;
+                rotate = rotateRequested;
+                rotateRequested = false;
+            } finally {
+                appendLock.unlock();
+            }
+
+            long sequence = walSequence;
+            Future<?> snapshot = null;
+            try {
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    while (buffer.hasRemaining()) {
+                        walBytes += wal.write(buffer);
+                    }
+                    wal.force(false);
+                }
+                buffer.clear();
+                if (rotate || walBytes >= maxWalBytes) {
+                    long sealedSequence = sequence++;
+                    wal.close();
+                    openWal(sequence);
+                    snapshot = snapshotExecutor.submit(() -> snapshot(sealedSequence));
+                }
+            } catch (IOException e) {
+                log.error("wal write failed", e);
+                appendLock.lock();
+                try {
+                    failure = e;
+                    flushed.signalAll();
+                } finally {
+                    appendLock.unlock();
+                }
+                return;
+            }
+
+            appendLock.lock();
+            try {
+                durableLsn = lsn;
+                walSequence = sequence;
+                if (snapshot != null) {
+                    lastSnapshot = snapshot;
+                }
+                flushed.signalAll();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    private void openWal(long sequence) throws IOException {
+        wal = FileChannel.open(walPath(sequence), CREATE, WRITE, APPEND);
+        walBytes = wal.size();
+    }
+
+    /**
+     * 실패해도 로그는 지우지 않았으므로 다음 스냅샷까지 복구에 로그를 더 많이 읽을 뿐이다.
+     */
+    private void snapshot(long sequence) {
+        try {
+            writeSnapshot(sequence);
+        } catch (IOException | RuntimeException e) {
+            log.error("snapshot failed sequence={}", sequence, e);
+            throw new MyDbException("snapshot failed sequence=" + sequence, e);
+        }
+    }
+
+    /**
+     * sequence 이하의 로그가 모두 반영된 상태를 스냅샷으로 기록하고, 더 이상 필요 없는 파일을 지운다.
+     */
+    private void writeSnapshot(long sequence) throws IOException {
+        Path target = snapshotPath(sequence);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(temp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            SnapshotWriter writer = new SnapshotWriter(channel, sequence);
+            try {
+                store.forEachEntry(writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+            channel.force(true);
+            log.info("snapshot sequence={} count={} elapsed={}ms",
+                    sequence, writer.count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        Files.move(temp, target, ATOMIC_MOVE);
+
+        for (long walSequence : sequences(WAL_PREFIX, WAL_SUFFIX)) {
+            if (walSequence <= sequence) {
+                Files.deleteIfExists(walPath(walSequence));
+            }
+        }
+        for (long snapshotSequence : sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (snapshotSequence < sequence) {
+                Files.deleteIfExists(snapshotPath(snapshotSequence));
+            }
+        }
+    }
+
+    /**
+     * @return 복구에 사용한 마지막 스냅샷 또는 로그 파일의 sequence
+     */
+    private long recover() throws IOException {
+        long start = System.nanoTime();
+        long lastSequence = 0;
+
+        List<Long> snapshots = sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (!snapshots.isEmpty()) {
+            lastSequence = snapshots.get(snapshots.size() - 1);
+            loadSnapshot(snapshotPath(lastSequence));
+        }
+
+        List<Long> wals = new ArrayList<>();
+        for (long walSequence : sequences(WAL_PREFIX, WAL_SUFFIX)) {
+            if (walSequence > lastSequence) {
+                wals.add(walSequence);
+            } else {
+                Files.deleteIfExists(walPath(walSequence)); //스냅샷 후 지우기 전에 종료된 경우
+            }
+        }
+        long records = 0;
+        for (int i = 0; i < wals.size(); i++) {
+            records += replay(walPath(wals.get(i)), i == wals.size() - 1);
+            lastSequence = wals.get(i);
+        }
+
+        log.info("recovered members={} walRecords={} elapsed={}ms",
+                store.size(), records, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return lastSequence;
+    }
+
+    private void loadSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+            if (size < SNAPSHOT_HEADER_BYTES + SNAPSHOT_FOOTER_BYTES) {
+                throw new MyDbException("corrupted snapshot: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.flip();
+            CRC32C crc = new CRC32C();
+            long position = 0;
+            long dataEnd = size - 4; //마지막 4바이트(CRC)는 CRC 계산에서 제외
+
+            buffer = fill(channel, buffer, position, SNAPSHOT_HEADER_BYTES);
+            crc.update(buffer.duplicate().limit(buffer.position() + SNAPSHOT_HEADER_BYTES));
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                throw new MyDbException("corrupted snapshot: " + file);
+            }
+            buffer.getLong();
+            position += SNAPSHOT_HEADER_BYTES;
+
+            long count = 0;
+            while (true) {
+                buffer = fill(channel, buffer, position, 1);
+                int length = buffer.get(buffer.position());
+                if (length == 0) {
+                    buffer = fill(channel, buffer, position, SNAPSHOT_FOOTER_BYTES);
+                    crc.update(buffer.duplicate().limit(buffer.position() + 9));
+                    buffer.get();
+                    long expectedCount = buffer.getLong();
+                    int expectedCrc = buffer.getInt();
+                    if (position + SNAPSHOT_FOOTER_BYTES != size || expectedCount != count
+                            || expectedCrc != (int) crc.getValue()) {
+                        throw new MyDbException("corrupted snapshot: " + file);
+                    }
+                    break;
+                }
+                if (length < 0 || position + 1 + length + 4 > dataEnd) {
+                    throw new MyDbException("corrupted snapshot: " + file);
+                }
+                buffer = fill(channel, buffer, position, 1 + length + 4);
+                crc.update(buffer.duplicate().limit(buffer.position() + 1 + length + 4));
+                buffer.get();
+                byte[] key = new byte[length];
+                buffer.get(key);
+                store.putEntry(key, buffer.getInt());
+                position += 1 + length + 4;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * @param last 마지막 로그 파일이면 쓰다 만 레코드부터 잘라낸다. 그 외 파일의 손상은 복구할 수 없다.
+     * @return 적용한 레코드 수
+     */
+    private long replay(Path file, boolean last) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.flip();
+            CRC32C crc = new CRC32C();
+            long position = 0;
+            long records = 0;
+
+            while (position < size) {
+                if (size - position < RECORD_HEADER_BYTES) {
+                    break;
+                }
+                buffer = fill(channel, buffer, position, RECORD_HEADER_BYTES);
+                int payloadBytes = buffer.getInt(buffer.position());
+                int expectedCrc = buffer.getInt(buffer.position() + 4);
+                if (payloadBytes < 2 || payloadBytes > MAX_PAYLOAD_BYTES
+                        || size - position < RECORD_HEADER_BYTES + payloadBytes) {
+                    break;
+                }
+                buffer = fill(channel, buffer, position, RECORD_HEADER_BYTES + payloadBytes);
+                crc.reset();
+                crc.update(buffer.duplicate()
+                        .position(buffer.position() + RECORD_HEADER_BYTES)
+                        .limit(buffer.position() + RECORD_HEADER_BYTES + payloadBytes));
+                if ((int) crc.getValue() != expectedCrc) {
+                    break;
+                }
+
+                buffer.position(buffer.position() + RECORD_HEADER_BYTES);
+                byte type = buffer.get();
+                byte[] key = new byte[buffer.get()];
+                buffer.get(key);
+                if (type == PUT) {
+                    store.putEntry(key, buffer.getInt());
+                } else if (type == TRANSFER) {
+                    store.putEntry(key, buffer.getInt());
+                    byte[] toKey = new byte[buffer.get()];
+                    buffer.get(toKey);
+                    store.putEntry(toKey, buffer.getInt());
+                } else {
+                    store.removeEntry(key);
+                }
+                position += RECORD_HEADER_BYTES + payloadBytes;
+                records++;
+            }
+
+            if (position < size) {
+                if (!last) {
+                    throw new MyDbException("corrupted wal: " + file + " position=" + position);
+                }
+                log.warn("truncate torn wal tail file={} position={} size={}", file, position, size);
+                channel.truncate(position);
+                channel.force(true);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * 파일의 position 부터 최소 bytes 바이트를 buffer 에 채운다. buffer 의 position 은 파일의 position 을 가리킨다.
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, long position, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        buffer.compact();
+        long readPosition = position + buffer.position();
+        while (buffer.position() < bytes) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                throw new MyDbException("unexpected end of file");
+            }
+            readPosition += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private List<Long> sequences(String prefix, String suffix) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .forEach(name -> sequences.add(Long.parseLong(
+                            name.substring(prefix.length(), name.length() - suffix.length()))));
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    private Path walPath(long sequence) {
+        return directory.resolve(WAL_PREFIX + sequence + WAL_SUFFIX);
+    }
+
+    private Path snapshotPath(long sequence) {
+        return directory.resolve(SNAPSHOT_PREFIX + sequence + SNAPSHOT_SUFFIX);
+    }
+
+    private byte[] encode(String memberId) {
+        return MemberIdCodec.encode(memberId, store.maxKeyBytes());
+    }
+
+    private byte[] lookupKey(String memberId) {
+        return MemberIdCodec.encodeForLookup(memberId, store.maxKeyBytes());
+    }
+
+    private Object stripe(byte[] key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    private int stripeIndex(byte[] key) {
+        return MemberIdCodec.hash(key) & (LOCK_STRIPES - 1);
+    }
+
+    private void checkOpen() {
+        checkFailure();
+        if (closed) {
+            throw new IllegalStateException("member store is closed");
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new MyDbException("wal write failed", failure);
+        }
+    }
+
+    /**
+     * {@code [magic 4B][version 4B][sequence 8B] ([id 길이 1B][id][money 4B])* [0 1B][count 8B][CRC32C 4B]}
+     */
+    private static final class SnapshotWriter implements MemoryMemberRepository.EntryVisitor {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CRC32C crc = new CRC32C();
+        private long count;
+
+        SnapshotWriter(FileChannel channel, long sequence) {
+            this.channel = channel;
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(sequence);
+        }
+
+        @Override
+        public void visit(byte[] keys, int offset, int length, int money) {
+            if (buffer.remaining() < 1 + length + 4) {
+                write();
+            }
+            buffer.put((byte) length).put(keys, offset, length).putInt(money);
+            count++;
+        }
+
+        void finish() throws IOException {
+            if (buffer.remaining() < SNAPSHOT_FOOTER_BYTES) {
+                write();
+            }
+            buffer.put((byte) 0).putLong(count);
+            crc.update(buffer.duplicate().flip());
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private void write() {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+}
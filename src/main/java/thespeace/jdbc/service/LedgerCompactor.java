@@ -0,0 +1,95 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.repository.MemberLedgerRepository;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>원장 증감액 반영(compaction)</h1>
+ * 증감액이 쌓이면 잔액 조회가 더할 row 가 늘어난다. 이 클래스는 interval 마다 증감액을 member.money 에 반영한다.
+ * <ul>
+ *     <li>chunkSize 건씩 별도 트랜잭션으로 반영한다. 트랜잭션 하나가 잡는 row lock 과 undo 양이 chunk 크기로 제한된다.</li>
+ *     <li>chunk 를 모두 반영했으면 남은 증감액이 있을 수 있으므로 기다리지 않고 다음 chunk 를 반영한다.
+ *         반영할 수 없는 증감액(잔액이 integer 범위를 넘는 회원)이 있던 chunk 에서는 멈추고 다음 주기에 이어서 반영한다.</li>
+ *     <li>반영이 실패하면 로그를 남기고 다음 주기에 다시 시도한다. 롤백된 chunk 의 증감액은 그대로 남아 있다.</li>
+ * </ul>
+ */
+@Slf4j
+public class LedgerCompactor implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+
+    private final TransactionTemplate txTemplate;
+    private final MemberLedgerRepository ledgerRepository;
+    private final int chunkSize;
+    private final ScheduledExecutorService scheduler;
+
+    public LedgerCompactor(PlatformTransactionManager transactionManager, MemberLedgerRepository ledgerRepository) {
+        this(transactionManager, ledgerRepository, DEFAULT_CHUNK_SIZE, DEFAULT_INTERVAL);
+    }
+
+    public LedgerCompactor(PlatformTransactionManager transactionManager, MemberLedgerRepository ledgerRepository,
+                           int chunkSize, Duration interval) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.ledgerRepository = ledgerRepository;
+        this.chunkSize = chunkSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::compactSafely, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 남은 증감액을 반영한다. 반영할 수 없는 증감액이 있는 chunk 를 만나면 거기서 멈춘다.
+     *
+     * @return 반영한 증감액 row 수
+     */
+    public long compact() {
+        long total = 0;
+        while (true) {
+            Integer compacted = txTemplate.execute(status -> ledgerRepository.compact(chunkSize));
+            int count = compacted == null ? 0 : compacted;
+            total += count;
+            if (count < chunkSize) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * 스케줄을 멈추고 진행 중인 반영이 끝날 때까지 기다린다.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void compactSafely() {
+        try {
+            long compacted = compact();
+            if (compacted > 0) {
+                log.debug("ledger deltas compacted count={}", compacted);
+            }
+        } catch (RuntimeException e) {
+            log.error("ledger compaction failed", e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.domain.Transfer;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.TransferResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <h1>대량 이체(정산)</h1>
+ * {@link MemberServiceV4}로 이체 N 건을 처리하면 2N 번 row 를 수정한다. 정산처럼 같은 회원이 여러 이체에 나오는 경우
+ * 회원별 순 증감액만 반영하면 관련된 회원 수(K)만큼만 수정하면 된다.
+ * <ul>
+ *     <li>이체 목록을 메모리에서 회원별 순 증감액으로 합친다. ({@link NetDeltas})</li>
+ *     <li>관련 회원을 {@code findAllById}로 한 번에 조회해서, 합친 결과 잔액이 음수가 되는 회원이 있으면 아무것도 반영하지 않는다.
+ *         이체 순서와 무관하게 최종 결과만 검사하므로, 중간에 잔액이 일시적으로 부족해지는 순서여도 성공한다.</li>
+ *     <li>{@code money = money + ?} 배치 한 번으로 반영한다. 조회와 반영 사이에 다른 트랜잭션이 출금해서 잔액 조건을 만족하지 못하는
+ *         회원이 생기면 예외를 던져서 전체를 롤백한다.</li>
+ *     <li>row lock 을 항상 같은 순서로 잡도록 member_id 순서로 반영한다.</li>
+ * </ul>
+ *
+ * <h2>부분 롤백(savepoint)</h2>
+ * {@link #accountTransferEach(List)}는 이체를 합치지 않고 하나씩 처리하되, 하나의 트랜잭션에서 처리한다.
+ * <ul>
+ *     <li>이체마다 {@code PROPAGATION_NESTED}로 savepoint 를 만든다. ({@code DataSourceTransactionManager}는
+ *         {@code Connection.setSavepoint}로 중첩 트랜잭션을 지원한다)</li>
+ *     <li>validation 예외, 잔액 부족 등으로 실패한 이체는 자신의 savepoint 까지만 롤백되고 결과에 실패로 기록된다.
+ *         나머지 이체는 같은 트랜잭션으로 커밋된다. 실패 하나 때문에 전체를 다시 시도하지 않아도 된다.</li>
+ *     <li>이체를 목록 순서대로 처리하면 row lock 도 목록 순서로 잡힌다. 이렇게 처리하는 트랜잭션 두 개가 같은 회원들을
+ *         다른 순서로 잠그면 교착 상태가 생기므로, 관련 회원을 먼저 member_id 순서로 {@code findByIdForUpdate} 해 둔다.
+ *         (savepoint 롤백은 row lock 을 풀지 않으므로 잠금은 커밋까지 유지된다)</li>
+ * </ul>
+ */
+@Slf4j
+public class MemberBatchService {
+
+    private final TransactionTemplate txTemplate;
+    private final TransactionTemplate savepointTemplate;
+    private final MemberRepository memberRepository;
+
+    public MemberBatchService(PlatformTransactionManager transactionManager, MemberRepository memberRepository) {
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.savepointTemplate = new TransactionTemplate(transactionManager);
+        this.savepointTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        this.memberRepository = memberRepository;
+    }
+
+    public void accountTransferBatch(List<Transfer> transfers) {
+        txTemplate.executeWithoutResult(status -> bizLogicBatch(transfers));
+    }
+
+    private void bizLogicBatch(List<Transfer> transfers) {
+        NetDeltas net = NetDeltas.of(transfers);
+
+        List<String> memberIds = new ArrayList<>(net.size());
+        net.forEach((memberId, delta) -> memberIds.add(memberId));
+        Map<String, Member> members = memberRepository.findAllById(memberIds);
+
+        Map<String, Integer> deltas = new TreeMap<>();
+        net.forEach((memberId, delta) -> {
+            Member member = members.get(memberId);
+            if (member == null) {
+                throw new IllegalStateException("회원이 없습니다. memberId=" + memberId);
+            }
+            long money = member.getMoney() + delta;
+            if (money < 0) {
+                throw new IllegalStateException("잔액 부족 memberId=" + memberId + ", money=" + member.getMoney() + ", delta=" + delta);
+            }
+            if (money > Integer.MAX_VALUE) {
+                throw new IllegalStateException("잔액 한도 초과 memberId=" + memberId + ", money=" + member.getMoney() + ", delta=" + delta);
+            }
+            if (delta != 0) {
+                deltas.put(memberId, Math.toIntExact(delta));
+            }
+        });
+
+        int applied = memberRepository.adjustAll(deltas, 0);
+        if (applied != deltas.size()) {
+            throw new IllegalStateException("다른 트랜잭션이 잔액을 변경했습니다. expected=" + deltas.size() + ", applied=" + applied);
+        }
+        log.info("transfers={}, members={}, rowWrites={}", transfers.size(), net.size(), applied);
+    }
+
+    /**
+     * 이체를 목록 순서대로 하나씩, 하나의 트랜잭션에서 처리한다. 실패한 이체만 savepoint 로 롤백한다.
+     * 커밋이 실패하면 예외를 던진다. (이 경우 성공으로 기록된 이체도 반영되지 않았다)
+     *
+     * @return transfers 와 같은 순서의 이체별 결과
+     */
+    public List<TransferOutcome> accountTransferEach(List<Transfer> transfers) {
+        List<TransferOutcome> outcomes = txTemplate.execute(status -> {
+            lockMembers(transfers);
+            List<TransferOutcome> result = new ArrayList<>(transfers.size());
+            for (Transfer transfer : transfers) {
+                try {
+                    result.add(TransferOutcome.succeeded(transfer, savepointTemplate.execute(itemStatus -> bizLogic(transfer))));
+                } catch (RuntimeException e) {
+                    log.info("transfer rolled back to savepoint transfer={}, message={}", transfer, e.getMessage());
+                    result.add(TransferOutcome.failed(transfer, e));
+                }
+            }
+            return result;
+        });
+        log.info("transfers={}, failed={}", transfers.size(), outcomes.stream().filter(outcome -> !outcome.isSucceeded()).count());
+        return outcomes;
+    }
+
+    /**
+     * 존재하는 관련 회원을 member_id 순서로 잠근다. 없는 회원은 해당 이체가 savepoint 안에서 실패한다.
+     */
+    private void lockMembers(List<Transfer> transfers) {
+        Set<String> memberIds = new TreeSet<>();
+        for (Transfer transfer : transfers) {
+            memberIds.add(transfer.getFromId());
+            memberIds.add(transfer.getToId());
+        }
+        Map<String, Member> existing = memberRepository.findAllById(memberIds);
+        for (String memberId : memberIds) {
+            if (existing.containsKey(memberId)) {
+                memberRepository.findByIdForUpdate(memberId);
+            }
+        }
+    }
+
+    private TransferResult bizLogic(Transfer transfer) {
+        TransferResult result = memberRepository.transfer(transfer.getFromId(), transfer.getToId(), transfer.getMoney())
+                .orElseThrow(() -> new IllegalStateException("이체 실패: 회원이 없거나 잔액이 부족합니다. " + transfer));
+        validation(result.getToMember());
+        return result;
+    }
+
+    private void validation(Member toMember) {
+        if(toMember.getMemberId().equals("ex")) {
+            throw new IllegalStateException("이체 중 예외 발생");
+        }
+    }
+}
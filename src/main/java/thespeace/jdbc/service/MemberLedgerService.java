@@ -0,0 +1,104 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.domain.Transfer;
+import thespeace.jdbc.repository.LedgerPage;
+import thespeace.jdbc.repository.MemberLedgerRepository;
+import thespeace.jdbc.repository.MemberRepository;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * <h1>원장 기반 이체</h1>
+ * 이체마다 두 회원의 member.money 를 수정하는 대신 {@link MemberLedgerRepository}에 이체 기록과 증감액을 추가한다.
+ * <ul>
+ *     <li>여러 이체를 한 트랜잭션에서 처리할 수 있다. 이체 기록과 회원별 순 증감액({@link NetDeltas})을 각각 배치 insert 한다.</li>
+ *     <li>출금하는 회원(순 증감액이 음수)만 member_id 순서로 잠그고 잔액을 검사한다.
+ *         입금만 받는 회원의 row 는 잠그지도 수정하지도 않으므로, 입금이 몰려도 서로 기다리지 않는다.</li>
+ *     <li>잔액이 부족하거나 없는 회원이 있으면 예외를 던져서 묶음 전체를 롤백한다.</li>
+ *     <li>증감액은 {@link LedgerCompactor}가 주기적으로 member.money 에 반영한다.</li>
+ * </ul>
+ */
+@Slf4j
+public class MemberLedgerService {
+
+    private final TransactionTemplate txTemplate;
+    private final MemberRepository memberRepository;
+    private final MemberLedgerRepository ledgerRepository;
+    private final Clock clock;
+
+    public MemberLedgerService(PlatformTransactionManager transactionManager, MemberRepository memberRepository,
+                               MemberLedgerRepository ledgerRepository) {
+        this(transactionManager, memberRepository, ledgerRepository, Clock.systemUTC());
+    }
+
+    public MemberLedgerService(PlatformTransactionManager transactionManager, MemberRepository memberRepository,
+                               MemberLedgerRepository ledgerRepository, Clock clock) {
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.memberRepository = memberRepository;
+        this.ledgerRepository = ledgerRepository;
+        this.clock = clock;
+    }
+
+    public void accountTransfer(String fromId, String toId, int money) {
+        accountTransfer(List.of(new Transfer(fromId, toId, money)));
+    }
+
+    public void accountTransfer(List<Transfer> transfers) {
+        if (transfers.isEmpty()) {
+            return;
+        }
+        txTemplate.executeWithoutResult(status -> bizLogic(transfers));
+    }
+
+    /**
+     * @return 스냅샷과 아직 반영되지 않은 증감액의 합
+     * @throws NoSuchElementException 회원이 없으면
+     */
+    public long findBalance(String memberId) {
+        return ledgerRepository.findBalance(memberId)
+                .orElseThrow(() -> new NoSuchElementException("member not found memberId=" + memberId));
+    }
+
+    public LedgerPage findTransfers(String memberId, Instant from, Instant to, String pageToken, int limit) {
+        return ledgerRepository.findTransfers(memberId, from, to, pageToken, limit);
+    }
+
+    private void bizLogic(List<Transfer> transfers) {
+        NetDeltas net = NetDeltas.of(transfers);
+        Map<String, Long> deltas = new TreeMap<>();
+        net.forEach((memberId, delta) -> {
+            if (delta != 0) {
+                deltas.put(memberId, delta);
+            }
+        });
+
+        List<String> memberIds = new ArrayList<>(net.size());
+        net.forEach((memberId, delta) -> memberIds.add(memberId));
+        Map<String, Member> members = memberRepository.findAllById(memberIds);
+        for (String memberId : memberIds) {
+            if (!members.containsKey(memberId)) {
+                throw new IllegalStateException("회원이 없습니다. memberId=" + memberId);
+            }
+        }
+
+        //TreeMap 이므로 member_id 순서로 잠근다.
+        for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+            if (entry.getValue() >= 0) {
+                continue;
+            }
+            long balance = ledgerRepository.findBalanceForUpdate(entry.getKey())
+                    .orElseThrow(() -> new IllegalStateException("회원이 없습니다. memberId=" + entry.getKey()));
+            if (balance + entry.getValue() < 0) {
+                throw new IllegalStateException("잔액 부족 memberId=" + entry.getKey() + ", money=" + balance + ", delta=" + entry.getValue());
+            }
+        }
+
+        ledgerRepository.append(transfers, deltas, clock.instant());
+    }
+}
@@ -12,6 +12,15 @@ import thespeace.jdbc.repository.MemberRepository;
  *     <li>MemberRepository 인터페이스 의존</li>
  *     <li>순수한 자바코드로 이루어진 서비스 완성</li>
  * </ul>
+ *
+ * <h2>잠금 순서</h2>
+ * {@code accountTransfer(A, B)}와 {@code accountTransfer(B, A)}가 동시에 실행되면 서로 상대가 먼저 잠근 row 를 기다리는
+ * 교착 상태가 되고, 락 타임아웃이 지나서야 한쪽이 실패한다.
+ * <ul>
+ *     <li>두 회원을 {@code findByIdForUpdate}로 조회하면서 row lock 을 건다. 잠근 뒤에 읽은 잔액이므로 update 전에 다른 트랜잭션이
+ *         바꾸지 못한다. (잃어버린 수정 방지)</li>
+ *     <li>이체 방향과 무관하게 항상 member_id 가 작은 회원부터 잠근다. 모든 트랜잭션이 같은 순서로 잠그므로 교착 상태가 생기지 않는다.</li>
+ * </ul>
  */
 @Slf4j
 public class MemberServiceV4 {
@@ -28,8 +37,15 @@ public class MemberServiceV4 {
     }
 
     private void bizLogic(String fromId, String toId, int money) {
-        Member fromMember = memberRepository.findById(fromId);
-        Member toMember = memberRepository.findById(toId);
+        Member fromMember;
+        Member toMember;
+        if (fromId.compareTo(toId) < 0) {
+            fromMember = memberRepository.findByIdForUpdate(fromId);
+            toMember = memberRepository.findByIdForUpdate(toId);
+        } else {
+            toMember = memberRepository.findByIdForUpdate(toId);
+            fromMember = memberRepository.findByIdForUpdate(fromId);
+        }
 
         memberRepository.update(fromId, fromMember.getMoney() - money);
         validation(toMember);
@@ -0,0 +1,45 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.annotation.Transactional;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.TransferResult;
+
+/**
+ * <h2>이체를 한 번의 쿼리로</h2>
+ * {@link MemberServiceV4}는 이체 한 번에 조회 2번, 수정 2번, 총 4번 DB 를 왕복한다.
+ * <ul>
+ *     <li>{@link MemberRepository#transfer(String, String, int)}로 출금, 입금, 잔액 확인, 변경 후 잔액 조회를 한 문장으로 처리한다.</li>
+ *     <li>잔액이 부족하거나 회원이 없으면 아무것도 변경되지 않고 예외가 발생한다.</li>
+ *     <li>validation 은 이체 문장 이후에 실행된다. 예외가 발생하면 트랜잭션이 롤백되어 이체도 함께 취소된다. (V4 와 같다)</li>
+ * </ul>
+ */
+@Slf4j
+public class MemberServiceV4_1 {
+
+    private final MemberRepository memberRepository;
+
+    public MemberServiceV4_1(MemberRepository memberRepository) {
+        this.memberRepository = memberRepository;
+    }
+
+    @Transactional
+    public TransferResult accountTransfer(String fromId, String toId, int money) {
+        return bizLogic(fromId, toId, money);
+    }
+
+    private TransferResult bizLogic(String fromId, String toId, int money) {
+        TransferResult result = memberRepository.transfer(fromId, toId, money)
+                .orElseThrow(() -> new IllegalStateException("이체 실패: 회원이 없거나 잔액이 부족합니다. fromId=" + fromId + ", toId=" + toId));
+        log.info("fromMoney={}, toMoney={}", result.getFromMember().getMoney(), result.getToMember().getMoney());
+        validation(result.getToMember());
+        return result;
+    }
+
+    private void validation(Member toMember) {
+        if(toMember.getMemberId().equals("ex")) {
+            throw new IllegalStateException("이체 중 예외 발생");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.VersionedMemberRepository;
+import thespeace.jdbc.repository.ex.MyOptimisticLockException;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>낙관적 락(optimistic lock) 이체</h2>
+ * {@link MemberServiceV4}는 두 회원을 {@code select ... for update}로 잠그고 이체한다. 같은 회원에 이체가 몰리면
+ * 트랜잭션이 잠금을 기다리며 한 줄로 처리된다.
+ * <ul>
+ *     <li>잠그지 않고 조회한 뒤, 조회할 때의 version 으로 {@link VersionedMemberRepository#updateWithVersion}을 호출한다.</li>
+ *     <li>그 사이 다른 트랜잭션이 수정했으면 {@link MyOptimisticLockException}이 발생하고 트랜잭션은 롤백된다.
+ *         새 트랜잭션에서 다시 조회해서 maxAttempts 까지 재시도한다.</li>
+ *     <li>재시도가 트랜잭션 밖에서 일어나야 하므로 {@code @Transactional} 대신 {@link TransactionTemplate}을 사용한다.</li>
+ *     <li>validation 예외는 재시도하지 않는다. ("ex" 의 경우 V4 와 같이 롤백된다)</li>
+ *     <li>update 도 row lock 을 잡으므로 두 회원을 member_id 순서로 수정한다. 반대 방향 이체끼리 교착 상태가 생기지 않는다.</li>
+ * </ul>
+ * 충돌이 드물면 잠금 대기가 없어서 유리하고, 충돌이 잦으면(같은 회원에 이체가 몰리면) 재시도 비용 때문에 불리하다.
+ */
+@Slf4j
+public class MemberServiceV4_2 {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    private final TransactionTemplate txTemplate;
+    private final VersionedMemberRepository memberRepository;
+    private final int maxAttempts;
+    private final LongAdder conflicts = new LongAdder();
+
+    public MemberServiceV4_2(PlatformTransactionManager transactionManager, VersionedMemberRepository memberRepository) {
+        this(transactionManager, memberRepository, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public MemberServiceV4_2(PlatformTransactionManager transactionManager, VersionedMemberRepository memberRepository, int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.memberRepository = memberRepository;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void accountTransfer(String fromId, String toId, int money) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                txTemplate.executeWithoutResult(status -> bizLogic(fromId, toId, money));
+                return;
+            } catch (MyOptimisticLockException e) {
+                conflicts.increment();
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                log.info("optimistic lock conflict attempt={}, message={}", attempt, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 충돌로 재시도한 횟수
+     */
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+
+    private void bizLogic(String fromId, String toId, int money) {
+        Member fromMember = memberRepository.findById(fromId);
+        Member toMember = memberRepository.findById(toId);
+
+        //update 도 row lock 을 잡으므로 member_id 순서로 수정한다. (MemberServiceV4 의 잠금 순서와 같은 이유)
+        int fromMoney = fromMember.getMoney() - money;
+        int toMoney = toMember.getMoney() + money;
+        if (fromId.compareTo(toId) < 0) {
+            memberRepository.updateWithVersion(fromId, fromMoney, fromMember.getVersion());
+            validation(toMember);
+            memberRepository.updateWithVersion(toId, toMoney, toMember.getVersion());
+        } else {
+            memberRepository.updateWithVersion(toId, toMoney, toMember.getVersion());
+            validation(toMember);
+            memberRepository.updateWithVersion(fromId, fromMoney, fromMember.getVersion());
+        }
+    }
+
+    private void validation(Member toMember) {
+        if(toMember.getMemberId().equals("ex")) {
+            throw new IllegalStateException("이체 중 예외 발생");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepository;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h2>JVM 안의 회원별 잠금(striped lock)</h2>
+ * {@link MemberServiceV4}는 트랜잭션을 시작할 때 커넥션을 먼저 얻고, 그 다음 DB row lock 을 기다린다.
+ * 같은 회원에 요청이 몰리면 커넥션을 쥔 채로 잠금을 기다리는 트랜잭션이 커넥션 풀을 다 차지해서,
+ * 경합이 없는 다른 회원의 요청까지 커넥션을 얻지 못하고 기다리게 된다.
+ * <ul>
+ *     <li>회원 id 의 해시로 고른 {@link ReentrantLock}(stripe)을 트랜잭션을 시작하기 전에 잡는다.
+ *         같은 회원에 대한 요청은 커넥션 없이 메모리에서 줄을 선다.</li>
+ *     <li>잠금을 잡은 뒤에 {@link TransactionTemplate}으로 트랜잭션을 시작한다. {@code @Transactional}은 메서드에 들어가자마자
+ *         커넥션을 얻기 때문에 사용하지 않는다.</li>
+ *     <li>두 회원의 stripe 는 항상 번호 순서로 잡는다. 반대 방향 이체끼리 교착 상태가 생기지 않는다.
+ *         두 회원이 같은 stripe 면 하나만 잡는다.</li>
+ *     <li>stripe 는 회원 수와 무관하게 고정 개수다. 다른 회원이 같은 stripe 에 걸리면 불필요하게 기다릴 수 있으므로
+ *         동시 요청 수보다 충분히 크게 잡는다.</li>
+ *     <li>JVM 안의 잠금일 뿐이므로 여러 서버에서 실행되는 경우를 위해 DB row lock({@code findByIdForUpdate})도 그대로 사용한다.</li>
+ * </ul>
+ */
+@Slf4j
+public class MemberServiceV4_3 {
+
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private final TransactionTemplate txTemplate;
+    private final MemberRepository memberRepository;
+    private final ReentrantLock[] stripes;
+
+    public MemberServiceV4_3(PlatformTransactionManager transactionManager, MemberRepository memberRepository) {
+        this(transactionManager, memberRepository, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 잠금 개수, 2의 거듭제곱으로 올림한다.
+     */
+    public MemberServiceV4_3(PlatformTransactionManager transactionManager, MemberRepository memberRepository, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.memberRepository = memberRepository;
+        this.stripes = new ReentrantLock[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public void accountTransfer(String fromId, String toId, int money) {
+        int fromStripe = stripe(fromId);
+        int toStripe = stripe(toId);
+        ReentrantLock first = stripes[Math.min(fromStripe, toStripe)];
+        ReentrantLock second = stripes[Math.max(fromStripe, toStripe)];
+
+        first.lock();
+        try {
+            if (second != first) {
+                second.lock();
+            }
+            try {
+                txTemplate.executeWithoutResult(status -> bizLogic(fromId, toId, money));
+            } finally {
+                if (second != first) {
+                    second.unlock();
+                }
+            }
+        } finally {
+            first.unlock();
+        }
+    }
+
+    private void bizLogic(String fromId, String toId, int money) {
+        Member fromMember;
+        Member toMember;
+        if (fromId.compareTo(toId) < 0) {
+            fromMember = memberRepository.findByIdForUpdate(fromId);
+            toMember = memberRepository.findByIdForUpdate(toId);
+        } else {
+            toMember = memberRepository.findByIdForUpdate(toId);
+            fromMember = memberRepository.findByIdForUpdate(fromId);
+        }
+
+        memberRepository.update(fromId, fromMember.getMoney() - money);
+        validation(toMember);
+        memberRepository.update(toId, toMember.getMoney() + money);
+    }
+
+    private void validation(Member toMember) {
+        if(toMember.getMemberId().equals("ex")) {
+            throw new IllegalStateException("이체 중 예외 발생");
+        }
+    }
+
+    /**
+     * String.hashCode 의 하위 비트가 고르지 않은 경우를 위해 상위 비트를 섞는다.
+     */
+    private int stripe(String memberId) {
+        int hash = memberId.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+}
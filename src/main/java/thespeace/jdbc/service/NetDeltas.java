@@ -0,0 +1,117 @@
+package thespeace.jdbc.service;
+
+import thespeace.jdbc.domain.Transfer;
+
+import java.util.Collection;
+
+/**
+ * <h1>회원별 순 증감액</h1>
+ * 이체 목록을 회원별 잔액 증감 합계로 줄인다. 이체가 N 건이어도 결과는 관련된 회원 수(K)만큼이다.
+ * <ul>
+ *     <li>{@code HashMap<String, Long>}은 더할 때마다 Long 을 새로 만들고 회원마다 Entry 객체가 생긴다.
+ *         대신 id 배열과 long 배열로 된 open addressing(linear probing) 해시 테이블을 사용한다.</li>
+ *     <li>증감액은 long 으로 더한다. int 금액을 수백만 건 더해도 넘치지 않는다.</li>
+ * </ul>
+ */
+class NetDeltas {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_INITIAL_CAPACITY = 1 << 20;
+
+    private String[] keys;
+    private long[] deltas;
+    private int size;
+
+    NetDeltas(int expectedMembers) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < Math.min(expectedMembers * 2L, MAX_INITIAL_CAPACITY)) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        deltas = new long[capacity];
+    }
+
+    static NetDeltas of(Collection<Transfer> transfers) {
+        NetDeltas net = new NetDeltas(transfers.size());
+        for (Transfer transfer : transfers) {
+            net.add(transfer.getFromId(), -transfer.getMoney());
+            net.add(transfer.getToId(), transfer.getMoney());
+        }
+        return net;
+    }
+
+    void add(String memberId, long delta) {
+        int mask = keys.length - 1;
+        int index = slot(memberId, mask);
+        while (keys[index] != null) {
+            if (keys[index].equals(memberId)) {
+                deltas[index] += delta;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = memberId;
+        deltas[index] = delta;
+        if (++size > keys.length - (keys.length >>> 2)) { //load factor 0.75
+            resize();
+        }
+    }
+
+    /**
+     * 한 번도 나오지 않은 회원은 0
+     */
+    long get(String memberId) {
+        int mask = keys.length - 1;
+        int index = slot(memberId, mask);
+        while (keys[index] != null) {
+            if (keys[index].equals(memberId)) {
+                return deltas[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(DeltaVisitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                visitor.visit(keys[i], deltas[i]);
+            }
+        }
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        long[] oldDeltas = deltas;
+        keys = new String[oldKeys.length << 1];
+        deltas = new long[oldDeltas.length << 1];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+            int index = slot(oldKeys[i], mask);
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = oldKeys[i];
+            deltas[index] = oldDeltas[i];
+        }
+    }
+
+    /**
+     * String.hashCode 의 하위 비트가 고르지 않은 경우를 위해 상위 비트를 섞는다.
+     */
+    private static int slot(String memberId, int mask) {
+        int hash = memberId.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    interface DeltaVisitor {
+        void visit(String memberId, long delta);
+    }
+}
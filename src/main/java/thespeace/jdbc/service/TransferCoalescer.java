@@ -0,0 +1,207 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import thespeace.jdbc.domain.Transfer;
+import thespeace.jdbc.repository.TransferResult;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <h1>이체 요청 묶음 처리(group commit)</h1>
+ * 요청마다 트랜잭션을 시작하면 요청 쓰레드 수만큼 커넥션이 필요하고, 커넥션 풀(maximumPoolSize)이 처리량의 상한이 된다.
+ * 이 클래스는 동시에 들어온 이체 요청을 큐에 모았다가 하나의 트랜잭션에서 함께 처리한다.
+ * <ul>
+ *     <li>worker 쓰레드는 첫 요청을 받은 뒤 maxDelay 동안, 또는 maxBatchSize 개가 모일 때까지 요청을 더 모은다.</li>
+ *     <li>묶음 하나는 커넥션 하나, 트랜잭션 하나, 커밋 한 번으로 처리된다. worker 수가 동시에 쓰는 커넥션 수다.
+ *         묶음마다 관련 회원의 row lock 을 member_id 순서로 먼저 잡으므로, worker 가 여러 개여도 묶음끼리 교착 상태가 생기지 않는다.</li>
+ *     <li>묶음은 {@link MemberBatchService#accountTransferEach(List)}로 처리한다. 요청마다 savepoint 를 만들어서
+ *         실패한 요청은 savepoint 까지만 롤백되고 같은 묶음의 다른 요청은 그대로 커밋된다.</li>
+ *     <li>호출자는 {@link CompletableFuture}를 받는다. 커밋이 끝난 뒤에 완료되므로, 성공으로 완료되었으면 이미 반영된 것이다.
+ *         커밋이 실패하면 묶음 안의 모든 요청이 실패로 완료된다.</li>
+ *     <li>worker 나 close 를 호출한 쓰레드가 인터럽트되면 새 요청을 받지 않고, 큐에 남은 요청을 모두 실패로 완료한다.</li>
+ * </ul>
+ * 요청 하나의 응답 시간은 최대 maxDelay 만큼 늘어나는 대신, 커넥션 하나로 처리하는 초당 이체 수가 늘어난다.
+ */
+@Slf4j
+public class TransferCoalescer implements Closeable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(5);
+
+    private final MemberBatchService memberBatchService;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean closed;
+
+    public TransferCoalescer(MemberBatchService memberBatchService) {
+        this(memberBatchService, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY, 1);
+    }
+
+    public TransferCoalescer(MemberBatchService memberBatchService, int maxBatchSize, Duration maxDelay, int workerCount) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+        }
+        this.memberBatchService = memberBatchService;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::run, "transfer-coalescer-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * 이체 요청을 큐에 넣는다. 잘못된 인자(같은 id, 0 이하 금액)는 큐에 넣지 않고 바로 예외를 던진다.
+     *
+     * @return 커밋 후 변경된 두 회원의 잔액으로 완료된다. 요청이 실패했거나 커밋이 실패하면 예외로 완료된다.
+     */
+    public CompletableFuture<TransferResult> accountTransfer(String fromId, String toId, int money) {
+        Request request = new Request(new Transfer(fromId, toId, money));
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("transfer coalescer is closed");
+            }
+            queue.add(request);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return request.future;
+    }
+
+    /**
+     * 새 요청을 받지 않고, 큐에 남은 요청을 모두 처리한 뒤 worker 를 종료한다.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort("transfer coalescer close interrupted");
+                return;
+            }
+        }
+    }
+
+    private void run() {
+        List<Request> group = new ArrayList<>(maxBatchSize);
+        try {
+            while (true) {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                group.add(first);
+                collect(group);
+                execute(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            group.forEach(request -> request.future.completeExceptionally(new IllegalStateException("transfer coalescer interrupted")));
+            abort("transfer coalescer interrupted");
+        }
+    }
+
+    /**
+     * 새 요청을 막고 큐에 남은 요청을 실패로 완료한다. 쓰기 락을 잡은 뒤에는 큐에 요청이 더 들어오지 않는다.
+     */
+    private void abort(String message) {
+        List<Request> pending = new ArrayList<>();
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+            queue.drainTo(pending);
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        if (!pending.isEmpty()) {
+            log.warn("{} pending={}", message, pending.size());
+        }
+        IllegalStateException aborted = new IllegalStateException(message);
+        pending.forEach(request -> request.future.completeExceptionally(aborted));
+    }
+
+    /**
+     * 첫 요청 이후 maxDelay 가 지나거나 maxBatchSize 가 찰 때까지 요청을 더 모은다.
+     */
+    private void collect(List<Request> group) throws InterruptedException {
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (group.size() < maxBatchSize) {
+            if (queue.drainTo(group, maxBatchSize - group.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            group.add(next);
+        }
+    }
+
+    private void execute(List<Request> group) {
+        List<Transfer> transfers = new ArrayList<>(group.size());
+        group.forEach(request -> transfers.add(request.transfer));
+
+        List<TransferOutcome> outcomes;
+        try {
+            outcomes = memberBatchService.accountTransferEach(transfers);
+        } catch (RuntimeException e) {
+            log.error("transfer group commit failed size={}", group.size(), e);
+            group.forEach(request -> request.future.completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            TransferOutcome outcome = outcomes.get(i);
+            if (outcome.isSucceeded()) {
+                group.get(i).future.complete(outcome.getResult());
+            } else {
+                group.get(i).future.completeExceptionally(outcome.getException());
+            }
+        }
+    }
+
+    private static class Request {
+
+        private final Transfer transfer;
+        private final CompletableFuture<TransferResult> future = new CompletableFuture<>();
+
+        Request(Transfer transfer) {
+            this.transfer = transfer;
+        }
+    }
+}
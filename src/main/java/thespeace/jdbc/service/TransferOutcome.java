@@ -0,0 +1,37 @@
+package thespeace.jdbc.service;
+
+import lombok.Getter;
+import lombok.ToString;
+import thespeace.jdbc.domain.Transfer;
+import thespeace.jdbc.repository.TransferResult;
+
+/**
+ * <h2>이체 한 건의 처리 결과</h2>
+ * 성공했으면 변경 후 잔액(result), 실패했으면 원인 예외(exception)를 가진다.
+ */
+@Getter
+@ToString
+public class TransferOutcome {
+
+    private final Transfer transfer;
+    private final TransferResult result;
+    private final RuntimeException exception;
+
+    private TransferOutcome(Transfer transfer, TransferResult result, RuntimeException exception) {
+        this.transfer = transfer;
+        this.result = result;
+        this.exception = exception;
+    }
+
+    public static TransferOutcome succeeded(Transfer transfer, TransferResult result) {
+        return new TransferOutcome(transfer, result, null);
+    }
+
+    public static TransferOutcome failed(Transfer transfer, RuntimeException exception) {
+        return new TransferOutcome(transfer, null, exception);
+    }
+
+    public boolean isSucceeded() {
+        return exception == null;
+    }
+}
@@ -0,0 +1,219 @@
+package thespeace.jdbc.service;
+
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <h1>일시적 오류 재시도</h1>
+ * {@code MemberRepositoryV4_2}, {@code MemberRepositoryV5}는 SQLException 을 스프링 예외로 변환한다.
+ * 락 타임아웃({@code CannotAcquireLockException}), 교착 상태({@code DeadlockLoserDataAccessException})처럼
+ * {@link TransientDataAccessException} 계열 예외는 같은 작업을 다시 실행하면 성공할 수 있다.
+ * <blockquote><pre>
+ * retryExecutor.execute(() -> memberService.accountTransfer(fromId, toId, money));
+ * </pre></blockquote>
+ * <ul>
+ *     <li>이 실행기가 트랜잭션 경계여야 한다. {@code @Transactional} 서비스 메서드 바깥에서 호출하고, 시도마다 새 트랜잭션으로 처음부터 다시 실행된다.
+ *         트랜잭션 안에서 재시도하면 이미 실패한(롤백 대상) 트랜잭션을 계속 쓰게 되고, 교착 상태로 잃은 잠금이나 앞선 시도의 변경도 되돌릴 수 없다.
+ *         그래서 호출 시점에 실제 트랜잭션이 진행 중이면({@code TransactionSynchronizationManager.isActualTransactionActive()})
+ *         실행하지 않고 바로 {@code IllegalStateException}을 던진다.</li>
+ *     <li>TransientDataAccessException 계열(원인 예외 포함)만 재시도한다. 키 중복, 잔액 부족 같은 예외는 다시 해도 같은 결과이므로
+ *         바로 던진다. 단순 변환만 하는 {@code MemberRepositoryV4_1}의 MyDbException 도 구분할 수 없으므로 재시도하지 않는다.</li>
+ *     <li>대기 시간은 지수적으로 늘리고(initialBackoff * 2^n, 최대 maxBackoff) 0 ~ 그 값 사이에서 무작위로 고른다. (full jitter)
+ *         같은 락에서 실패한 요청들이 같은 시각에 다시 몰리지 않는다.</li>
+ * </ul>
+ *
+ * <h2>재시도 예산(retry budget)</h2>
+ * DB 가 과부하일 때 모든 요청이 재시도하면 부하가 시도 횟수 배로 늘어난다.(retry storm) 프로세스 전체가 공유하는 토큰으로 재시도를 제한한다.
+ * <ul>
+ *     <li>재시도 한 번에 토큰 1개를 쓴다. 토큰이 없으면 재시도하지 않고 마지막 예외를 던진다.</li>
+ *     <li>호출 한 번마다 retryRatio 만큼 토큰이 채워진다.(최대 maxTokens) 장기적으로 재시도는 전체 호출의 retryRatio 비율을 넘지 않는다.</li>
+ * </ul>
+ */
+@Slf4j
+public class TransientRetryExecutor {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(10);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMillis(500);
+    public static final double DEFAULT_RETRY_RATIO = 0.1;
+    public static final int DEFAULT_MAX_TOKENS = 100;
+
+    /**
+     * 토큰은 1/1000 단위 정수로 관리한다. (retryRatio 가 소수라서)
+     */
+    private static final long MILLI = 1000;
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long depositMilliTokens;
+    private final long maxMilliTokens;
+    private final AtomicLong milliTokens;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder budgetRejected = new LongAdder();
+    private final LongAdder nonTransient = new LongAdder();
+
+    public TransientRetryExecutor() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF, DEFAULT_RETRY_RATIO, DEFAULT_MAX_TOKENS);
+    }
+
+    public TransientRetryExecutor(int maxAttempts, Duration initialBackoff, Duration maxBackoff, double retryRatio, int maxTokens) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        if (retryRatio < 0 || maxTokens < 0) {
+            throw new IllegalArgumentException("retryRatio and maxTokens must not be negative");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.depositMilliTokens = Math.round(retryRatio * MILLI);
+        this.maxMilliTokens = maxTokens * MILLI;
+        this.milliTokens = new AtomicLong(maxMilliTokens);
+    }
+
+    public void run(Runnable action) {
+        execute(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public <T> T execute(Supplier<T> action) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("retry must be the transaction boundary: called inside an active transaction");
+        }
+        calls.increment();
+        deposit();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = action.get();
+                if (attempt > 1) {
+                    recovered.increment();
+                }
+                return result;
+            } catch (RuntimeException e) {
+                if (!isTransient(e)) {
+                    nonTransient.increment();
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    exhausted.increment();
+                    log.warn("retry exhausted attempts={}", attempt, e);
+                    throw e;
+                }
+                if (!withdraw()) {
+                    budgetRejected.increment();
+                    log.warn("retry budget exhausted attempts={}", attempt, e);
+                    throw e;
+                }
+                retries.increment();
+                long backoff = backoffNanos(attempt);
+                log.info("retry transient failure attempt={}, backoff={}us, exception={}",
+                        attempt, TimeUnit.NANOSECONDS.toMicros(backoff), e.toString());
+                sleep(backoff, e);
+            }
+        }
+    }
+
+    public Metrics metrics() {
+        return new Metrics(calls.sum(), retries.sum(), recovered.sum(), exhausted.sum(), budgetRejected.sum(),
+                nonTransient.sum(), (double) milliTokens.get() / MILLI);
+    }
+
+    /**
+     * 예외 자신 또는 원인 중에 TransientDataAccessException 이 있으면 재시도 대상이다.
+     */
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * full jitter: [0, min(maxBackoff, initialBackoff * 2^(attempt-1))]
+     */
+    private long backoffNanos(int attempt) {
+        int shift = Math.min(attempt - 1, 30);
+        long ceiling = initialBackoffNanos > (maxBackoffNanos >> shift) ? maxBackoffNanos : initialBackoffNanos << shift;
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void deposit() {
+        milliTokens.getAndUpdate(tokens -> Math.min(maxMilliTokens, tokens + depositMilliTokens));
+    }
+
+    private boolean withdraw() {
+        while (true) {
+            long tokens = milliTokens.get();
+            if (tokens < MILLI) {
+                return false;
+            }
+            if (milliTokens.compareAndSet(tokens, tokens - MILLI)) {
+                return true;
+            }
+        }
+    }
+
+    private static void sleep(long nanos, RuntimeException cause) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+    /**
+     * <h2>재시도 지표</h2>
+     * <ul>
+     *     <li>calls: execute 호출 수</li>
+     *     <li>retries: 재시도 횟수</li>
+     *     <li>recovered: 재시도 끝에 성공한 호출 수</li>
+     *     <li>exhausted: maxAttempts 를 다 쓰고 실패한 호출 수</li>
+     *     <li>budgetRejected: 재시도 예산이 없어서 재시도하지 않은 호출 수</li>
+     *     <li>nonTransient: 재시도 대상이 아닌 예외로 실패한 호출 수</li>
+     *     <li>availableTokens: 남은 재시도 토큰</li>
+     * </ul>
+     */
+    @Getter
+    @ToString
+    public static class Metrics {
+
+        private final long calls;
+        private final long retries;
+        private final long recovered;
+        private final long exhausted;
+        private final long budgetRejected;
+        private final long nonTransient;
+        private final double availableTokens;
+
+        public Metrics(long calls, long retries, long recovered, long exhausted, long budgetRejected,
+                       long nonTransient, double availableTokens) {
+            this.calls = calls;
+            this.retries = retries;
+            this.recovered = recovered;
+            this.exhausted = exhausted;
+            this.budgetRejected = budgetRejected;
+            this.nonTransient = nonTransient;
+            this.availableTokens = availableTokens;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package thespeace.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepositoryV4_2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+@Slf4j
+class PreparedStatementCacheTest {
+
+    private static final String MEMBER_ID = "psCache";
+
+    MemberRepositoryV4_2 repository;
+    PreparedStatementCache statementCache;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        statementCache = new PreparedStatementCache(dataSource);
+        repository = new MemberRepositoryV4_2(dataSource, 100, statementCache);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        repository.save(new Member(MEMBER_ID, 10000));
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.delete(MEMBER_ID);
+    }
+
+    @Test
+    void reuseInTransaction() {
+        long missCount = statementCache.getMissCount();
+
+        txTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < 10; i++) {
+                repository.findById(MEMBER_ID);
+            }
+        });
+
+        log.info("hit={}, miss={}", statementCache.getHitCount(), statementCache.getMissCount());
+        assertThat(statementCache.getMissCount() - missCount).isEqualTo(1);
+        assertThat(statementCache.getHitCount()).isEqualTo(9);
+    }
+
+    @Test
+    void noReuseWithoutTransaction() {
+        repository.findById(MEMBER_ID);
+        repository.findById(MEMBER_ID);
+
+        //트랜잭션 밖에서는 호출마다 커넥션이 달라서 캐시하지 않는다.
+        assertThat(statementCache.getHitCount()).isZero();
+    }
+}
@@ -0,0 +1,78 @@
+package thespeace.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+/**
+ * <h1>조회 캐시 - 트랜잭션 커밋/롤백 후 무효화</h1>
+ */
+@Slf4j
+class CachingMemberRepositoryTest {
+
+    private static final String MEMBER_ID = "cacheA";
+
+    CachingMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        repository = new CachingMemberRepository(new MemberRepositoryV5(dataSource), 1000, Duration.ofMinutes(1));
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        repository.save(new Member(MEMBER_ID, 10000));
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.delete(MEMBER_ID);
+    }
+
+    @Test
+    void readThrough() {
+        repository.findById(MEMBER_ID);
+        repository.findById(MEMBER_ID);
+
+        log.info("stats={}", repository.stats());
+        assertThat(repository.stats().hitCount()).isEqualTo(1);
+        assertThat(repository.stats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void evictAfterCommit() {
+        repository.findById(MEMBER_ID);
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_ID, 8000);
+            //트랜잭션 안에서 변경한 회원은 캐시를 거치지 않는다.
+            assertThat(repository.findById(MEMBER_ID).getMoney()).isEqualTo(8000);
+        });
+
+        assertThat(repository.findById(MEMBER_ID).getMoney()).isEqualTo(8000);
+    }
+
+    @Test
+    void evictAfterRollback() {
+        repository.findById(MEMBER_ID);
+
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_ID, 8000);
+            repository.findById(MEMBER_ID);
+            throw new IllegalStateException("이체 중 예외 발생");
+        })).isInstanceOf(IllegalStateException.class);
+
+        //롤백된 값이 캐시에 남지 않는다.
+        assertThat(repository.findById(MEMBER_ID).getMoney()).isEqualTo(10000);
+    }
+}
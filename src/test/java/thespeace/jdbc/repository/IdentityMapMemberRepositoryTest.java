@@ -0,0 +1,56 @@
+package thespeace.jdbc.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+/**
+ * <h1>트랜잭션 범위 1차 캐시</h1>
+ */
+class IdentityMapMemberRepositoryTest {
+
+    private static final String MEMBER_ID = "identityA";
+
+    IdentityMapMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        repository = new IdentityMapMemberRepository(new MemberRepositoryV5(dataSource));
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        repository.save(new Member(MEMBER_ID, 10000));
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.delete(MEMBER_ID);
+    }
+
+    @Test
+    void sameInstanceInTransaction() {
+        txTemplate.executeWithoutResult(status -> {
+            Member first = repository.findById(MEMBER_ID);
+            assertThat(repository.findById(MEMBER_ID)).isSameAs(first);
+
+            repository.update(MEMBER_ID, 8000);
+            assertThat(first.getMoney()).isEqualTo(8000);
+        });
+    }
+
+    @Test
+    void discardAfterTransaction() {
+        Member inTransaction = txTemplate.execute(status -> repository.findById(MEMBER_ID));
+
+        assertThat(repository.findById(MEMBER_ID)).isNotSameAs(inTransaction);
+        //트랜잭션 밖에서는 보관하지 않는다.
+        assertThat(repository.findById(MEMBER_ID)).isNotSameAs(repository.findById(MEMBER_ID));
+    }
+}
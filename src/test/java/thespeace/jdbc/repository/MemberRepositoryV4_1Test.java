@@ -0,0 +1,167 @@
+package thespeace.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.ex.MyDbException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+/**
+ * <h1>순수 JDBC 리포지토리(MyDbException) - 대량 처리 API</h1>
+ */
+@Slf4j
+class MemberRepositoryV4_1Test {
+
+    private static final int MEMBER_COUNT = 25;
+
+    HikariDataSource dataSource;
+    MemberRepositoryV4_1 repository;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+
+        repository = new MemberRepositoryV4_1(dataSource, 10); //chunk 경계를 확인하기 위해 작은 배치 크기 사용
+    }
+
+    @AfterEach
+    void afterEach() {
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            repository.delete(memberId(i));
+        }
+        dataSource.close();
+    }
+
+    @Test
+    void saveAll() {
+        repository.saveAll(members());
+
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            Member findMember = repository.findById(memberId(i));
+            assertThat(findMember.getMoney()).isEqualTo(i * 100);
+        }
+    }
+
+    @Test
+    void saveAllDuplicateKey() {
+        repository.save(new Member(memberId(0), 0));
+
+        assertThatThrownBy(() -> repository.saveAll(members()))
+                .isInstanceOf(MyDbException.class)
+                .hasMessageContaining("chunk=0");
+    }
+
+    @Test
+    void findAllById() {
+        repository.saveAll(members());
+
+        List<String> memberIds = new ArrayList<>();
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            memberIds.add(memberId(i));
+        }
+        memberIds.add("noMember");
+
+        Map<String, Member> findMembers = repository.findAllById(memberIds);
+        assertThat(findMembers).hasSize(MEMBER_COUNT);
+        assertThat(findMembers).doesNotContainKey("noMember");
+        assertThat(findMembers.get(memberId(3)).getMoney()).isEqualTo(300);
+    }
+
+    @Test
+    void findPageAfter() {
+        repository.saveAll(members());
+
+        List<String> memberIds = new ArrayList<>();
+        String pageToken = MemberPage.encodeToken("bulk"); //"bulk" 보다 큰 id 부터 조회
+        MemberPage page;
+        do {
+            page = repository.findPageAfter(pageToken, 7);
+            page.getMembers().stream()
+                    .map(Member::getMemberId)
+                    .filter(id -> id.startsWith("bulk"))
+                    .forEach(memberIds::add);
+            pageToken = page.getNextToken();
+        } while (page.hasNext() && memberIds.size() < MEMBER_COUNT);
+
+        assertThat(memberIds).hasSize(MEMBER_COUNT);
+        assertThat(memberIds).isSorted();
+    }
+
+    @Test
+    void saveOrUpdate() {
+        assertThat(repository.saveOrUpdate(new Member(memberId(0), 1000))).isTrue();
+        assertThat(repository.saveOrUpdate(new Member(memberId(0), 2000))).isFalse();
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(2000);
+    }
+
+    @Test
+    void insertIfAbsent() {
+        assertThat(repository.insertIfAbsent(new Member(memberId(0), 1000))).isTrue();
+        assertThat(repository.insertIfAbsent(new Member(memberId(0), 2000))).isFalse(); //키 중복 예외 없음
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(1000);
+    }
+
+    @Test
+    void adjustBalance() {
+        repository.save(new Member(memberId(0), 1000));
+
+        assertThat(repository.adjustBalance(memberId(0), -700, 0)).isTrue();
+        assertThat(repository.adjustBalance(memberId(0), -700, 0)).isFalse(); //잔액 부족
+        assertThat(repository.adjustBalance(memberId(0), 500, 0)).isTrue();
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(800);
+    }
+
+    @Test
+    void transfer() {
+        repository.save(new Member(memberId(0), 1000));
+        repository.save(new Member(memberId(1), 0));
+
+        Optional<TransferResult> result = repository.transfer(memberId(0), memberId(1), 700);
+        assertThat(result).hasValueSatisfying(transferResult -> {
+            assertThat(transferResult.getFromMember().getMoney()).isEqualTo(300);
+            assertThat(transferResult.getToMember().getMoney()).isEqualTo(700);
+        });
+
+        assertThat(repository.transfer(memberId(0), memberId(1), 700)).isEmpty(); //잔액 부족
+        assertThat(repository.transfer(memberId(0), "noMember", 100)).isEmpty(); //회원 없음
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(300);
+        assertThat(repository.findById(memberId(1)).getMoney()).isEqualTo(700);
+    }
+
+    @Test
+    void findOptionalById() {
+        repository.save(new Member(memberId(0), 1000));
+
+        assertThat(repository.findOptionalById(memberId(0))).hasValueSatisfying(
+                member -> assertThat(member.getMoney()).isEqualTo(1000));
+        assertThat(repository.findOptionalById("noMember")).isEmpty();
+        assertThat(repository.existsById(memberId(0))).isTrue();
+        assertThat(repository.existsById("noMember")).isFalse();
+    }
+
+    private List<Member> members() {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            members.add(new Member(memberId(i), i * 100));
+        }
+        return members;
+    }
+
+    private String memberId(int i) {
+        return "bulk" + i;
+    }
+}
@@ -0,0 +1,217 @@
+package thespeace.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+/**
+ * <h1>순수 JDBC 리포지토리(스프링 예외 변환기) - 대량 처리 API</h1>
+ */
+@Slf4j
+class MemberRepositoryV4_2Test {
+
+    private static final int MEMBER_COUNT = 25;
+
+    HikariDataSource dataSource;
+    MemberRepositoryV4_2 repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+
+        repository = new MemberRepositoryV4_2(dataSource, 10); //chunk 경계를 확인하기 위해 작은 배치 크기 사용
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @AfterEach
+    void afterEach() {
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            repository.delete(memberId(i));
+        }
+        dataSource.close();
+    }
+
+    @Test
+    void saveAll() {
+        repository.saveAll(members());
+
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            Member findMember = repository.findById(memberId(i));
+            assertThat(findMember.getMoney()).isEqualTo(i * 100);
+        }
+    }
+
+    @Test
+    void saveAllDuplicateKey() {
+        repository.save(new Member(memberId(0), 0));
+
+        assertThatThrownBy(() -> repository.saveAll(members()))
+                .isInstanceOf(DuplicateKeyException.class);
+    }
+
+    @Test
+    void findAllById() {
+        repository.saveAll(members());
+
+        List<String> memberIds = new ArrayList<>();
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            memberIds.add(memberId(i));
+        }
+        memberIds.add("noMember");
+
+        Map<String, Member> findMembers = repository.findAllById(memberIds);
+        assertThat(findMembers).hasSize(MEMBER_COUNT);
+        assertThat(findMembers).doesNotContainKey("noMember");
+        assertThat(findMembers.get(memberId(3)).getMoney()).isEqualTo(300);
+    }
+
+    @Test
+    void streamAll() {
+        repository.saveAll(members());
+
+        try (Stream<Member> members = repository.streamAll()) {
+            long count = members.filter(member -> member.getMemberId().startsWith("bulk")).count();
+            assertThat(count).isEqualTo(MEMBER_COUNT);
+        }
+    }
+
+    @Test
+    void streamByMoneyRange() {
+        repository.saveAll(members());
+
+        try (Stream<Member> members = repository.streamByMoneyRange(1000, 1500)) {
+            List<String> memberIds = members.map(Member::getMemberId)
+                    .filter(id -> id.startsWith("bulk"))
+                    .toList();
+            assertThat(memberIds).containsExactlyInAnyOrder(
+                    memberId(10), memberId(11), memberId(12), memberId(13), memberId(14), memberId(15));
+        }
+    }
+
+    /**
+     * 트랜잭션 안에서는 스트림이 트랜잭션 커넥션을 빌려 쓴다. 스트림을 닫으면 빌린 것을 반환해야 커넥션 참조가 남지 않는다.
+     */
+    @Test
+    void streamInTransaction() {
+        repository.saveAll(members());
+
+        txTemplate.executeWithoutResult(status -> {
+            ConnectionHolder holder = (ConnectionHolder) TransactionSynchronizationManager.getResource(dataSource);
+            try (Stream<Member> members = repository.streamAll()) {
+                assertThat(holder.isOpen()).isTrue(); //스트림이 커넥션을 사용 중
+                long count = members.filter(member -> member.getMemberId().startsWith("bulk")).count();
+                assertThat(count).isEqualTo(MEMBER_COUNT);
+            }
+            assertThat(holder.isOpen()).isFalse(); //스트림을 닫으면 커넥션을 반환
+
+            //같은 트랜잭션 커넥션으로 계속 조회할 수 있다.
+            assertThat(repository.findById(memberId(3)).getMoney()).isEqualTo(300);
+        });
+    }
+
+    @Test
+    void findPageAfter() {
+        repository.saveAll(members());
+
+        List<String> memberIds = new ArrayList<>();
+        String pageToken = MemberPage.encodeToken("bulk"); //"bulk" 보다 큰 id 부터 조회
+        MemberPage page;
+        do {
+            page = repository.findPageAfter(pageToken, 7);
+            page.getMembers().stream()
+                    .map(Member::getMemberId)
+                    .filter(id -> id.startsWith("bulk"))
+                    .forEach(memberIds::add);
+            pageToken = page.getNextToken();
+        } while (page.hasNext() && memberIds.size() < MEMBER_COUNT);
+
+        assertThat(memberIds).hasSize(MEMBER_COUNT);
+        assertThat(memberIds).isSorted();
+    }
+
+    @Test
+    void saveOrUpdate() {
+        assertThat(repository.saveOrUpdate(new Member(memberId(0), 1000))).isTrue();
+        assertThat(repository.saveOrUpdate(new Member(memberId(0), 2000))).isFalse();
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(2000);
+    }
+
+    @Test
+    void insertIfAbsent() {
+        assertThat(repository.insertIfAbsent(new Member(memberId(0), 1000))).isTrue();
+        assertThat(repository.insertIfAbsent(new Member(memberId(0), 2000))).isFalse(); //키 중복 예외 없음
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(1000);
+    }
+
+    @Test
+    void adjustBalance() {
+        repository.save(new Member(memberId(0), 1000));
+
+        assertThat(repository.adjustBalance(memberId(0), -700, 0)).isTrue();
+        assertThat(repository.adjustBalance(memberId(0), -700, 0)).isFalse(); //잔액 부족
+        assertThat(repository.adjustBalance(memberId(0), 500, 0)).isTrue();
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(800);
+    }
+
+    @Test
+    void transfer() {
+        repository.save(new Member(memberId(0), 1000));
+        repository.save(new Member(memberId(1), 0));
+
+        Optional<TransferResult> result = repository.transfer(memberId(0), memberId(1), 700);
+        assertThat(result).hasValueSatisfying(transferResult -> {
+            assertThat(transferResult.getFromMember().getMoney()).isEqualTo(300);
+            assertThat(transferResult.getToMember().getMoney()).isEqualTo(700);
+        });
+
+        assertThat(repository.transfer(memberId(0), memberId(1), 700)).isEmpty(); //잔액 부족
+        assertThat(repository.transfer(memberId(0), "noMember", 100)).isEmpty(); //회원 없음
+        assertThat(repository.findById(memberId(0)).getMoney()).isEqualTo(300);
+        assertThat(repository.findById(memberId(1)).getMoney()).isEqualTo(700);
+    }
+
+    @Test
+    void findOptionalById() {
+        repository.save(new Member(memberId(0), 1000));
+
+        assertThat(repository.findOptionalById(memberId(0))).hasValueSatisfying(
+                member -> assertThat(member.getMoney()).isEqualTo(1000));
+        assertThat(repository.findOptionalById("noMember")).isEmpty();
+        assertThat(repository.existsById(memberId(0))).isTrue();
+        assertThat(repository.existsById("noMember")).isFalse();
+    }
+
+    private List<Member> members() {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < MEMBER_COUNT; i++) {
+            members.add(new Member(memberId(i), i * 100));
+        }
+        return members;
+    }
+
+    private String memberId(int i) {
+        return "bulk" + i;
+    }
+}
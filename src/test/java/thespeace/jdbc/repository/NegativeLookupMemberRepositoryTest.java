@@ -0,0 +1,97 @@
+package thespeace.jdbc.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import thespeace.jdbc.domain.Member;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+class NegativeLookupMemberRepositoryTest {
+
+    private static final String MEMBER_ID = "negative";
+    private static final String OTHER_MEMBER_ID = "negative2";
+
+    NegativeLookupMemberRepository repository;
+
+    @BeforeEach
+    void beforeEach() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        repository = new NegativeLookupMemberRepository(new MemberRepositoryV5(dataSource), 1000, Duration.ofMinutes(1));
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.delete(MEMBER_ID);
+    }
+
+    @Test
+    void knownMiss() {
+        assertThatThrownBy(() -> repository.findById(MEMBER_ID))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        assertThatThrownBy(() -> repository.findById(MEMBER_ID))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+
+        //두 번째 조회는 DB 를 거치지 않는다.
+        assertThat(repository.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void freshExceptionPerMiss() {
+        assertThatThrownBy(() -> repository.findById(MEMBER_ID))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+
+        Throwable first = catchThrowable(() -> repository.findById(MEMBER_ID));
+        Throwable second = catchThrowable(() -> repository.findById(MEMBER_ID));
+        assertThat(first).isInstanceOf(EmptyResultDataAccessException.class);
+        assertThat(second).isNotSameAs(first);
+    }
+
+    /**
+     * 없음 예외의 종류는 회원마다 기록한다. 다른 회원의 조회가 예외 종류를 바꾸지 않는다.
+     */
+    @Test
+    void missKindPerMember() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        MemberRepository delegate = new ForwardingMemberRepository(new MemberRepositoryV5(dataSource)) {
+            @Override
+            public Member findById(String memberId) {
+                if (memberId.equals(OTHER_MEMBER_ID)) {
+                    throw new NoSuchElementException("member not found memberId=" + memberId);
+                }
+                return delegate.findById(memberId);
+            }
+        };
+        repository = new NegativeLookupMemberRepository(delegate, 1000, Duration.ofMinutes(1));
+
+        assertThatThrownBy(() -> repository.findById(MEMBER_ID))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        assertThatThrownBy(() -> repository.findById(OTHER_MEMBER_ID))
+                .isInstanceOf(NoSuchElementException.class);
+
+        //캐시에서 답해도 회원마다 delegate 가 던진 종류의 예외를 던진다.
+        assertThatThrownBy(() -> repository.findById(MEMBER_ID))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        assertThatThrownBy(() -> repository.findById(OTHER_MEMBER_ID))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(repository.stats().hitCount()).isEqualTo(2);
+    }
+
+    @Test
+    void invalidateOnSave() {
+        assertThatThrownBy(() -> repository.findById(MEMBER_ID))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+
+        repository.save(new Member(MEMBER_ID, 10000));
+
+        assertThat(repository.findById(MEMBER_ID).getMoney()).isEqualTo(10000);
+    }
+}
@@ -0,0 +1,111 @@
+package thespeace.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * <h1>입금이 몰리는 회원의 shard 수별 처리량</h1>
+ * 기본 test 태스크에서는 제외된다. {@code ./gradlew benchmark}로 실행한다.<br>
+ * 쓰레드마다 자기 회원에서 출금하고 같은 hot 회원에게 입금하는 트랜잭션을 반복한다.
+ * 입금을 먼저 하므로 hot 회원의 row lock 은 출금 왕복과 커밋까지 유지된다.
+ * shard 가 1개면 모든 트랜잭션이 그 row 를 기다리고, N 개면 N 개의 row 로 나누어 기다린다.
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest
+class ShardedBalanceBenchmark {
+
+    static final String HOT = "hot";
+    static final int THREADS = 32;
+    static final int CREDITS_PER_THREAD = 200;
+
+    @Autowired
+    ShardedBalanceMemberRepository memberRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        public TestConfig(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+        @Bean
+        ShardedBalanceMemberRepository memberRepository() {
+            return new ShardedBalanceMemberRepository(new MemberRepositoryV5(dataSource), dataSource);
+        }
+    }
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(HOT);
+        for (int t = 0; t < THREADS; t++) {
+            memberRepository.delete("p" + t);
+        }
+    }
+
+    @Test
+    void creditThroughput() throws Exception {
+        List<Member> members = new ArrayList<>();
+        members.add(new Member(HOT, 0));
+        for (int t = 0; t < THREADS; t++) {
+            members.add(new Member("p" + t, 1_000_000));
+        }
+        memberRepository.saveAll(members);
+
+        int expected = 0;
+        for (int shards : new int[]{1, 2, 4, 8, 16}) {
+            new TransactionTemplate(transactionManager)
+                    .executeWithoutResult(status -> memberRepository.enableSharding(HOT, shards));
+            run(shards);
+            expected += THREADS * CREDITS_PER_THREAD;
+            assertThat(memberRepository.findById(HOT).getMoney()).isEqualTo(expected);
+        }
+    }
+
+    private void run(int shards) throws Exception {
+        TransactionTemplate txTemplate = new TransactionTemplate(transactionManager);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            String payerId = "p" + t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < CREDITS_PER_THREAD; i++) {
+                    txTemplate.executeWithoutResult(status -> {
+                        memberRepository.adjustBalance(HOT, 1, 0);
+                        memberRepository.adjustBalance(payerId, -1, 0);
+                    });
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        long elapsed = System.nanoTime() - start;
+        int credits = THREADS * CREDITS_PER_THREAD;
+        log.info("shards={} credits={} elapsed={}ms tps={}", shards, credits, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                credits * 1_000_000_000L / elapsed);
+    }
+}
@@ -0,0 +1,178 @@
+package thespeace.jdbc.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+/**
+ * member_balance_shard 테이블이 필요하다. 스키마는 {@link ShardedBalanceMemberRepository} 참고
+ */
+class ShardedBalanceMemberRepositoryTest {
+
+    private static final String HOT = "hot";
+    private static final String PLAIN = "plain";
+
+    DriverManagerDataSource dataSource;
+    MemberRepositoryV5 memberRepository;
+    ShardedBalanceMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        memberRepository = new MemberRepositoryV5(dataSource);
+        repository = new ShardedBalanceMemberRepository(memberRepository, dataSource);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        repository.save(new Member(HOT, 0));
+        repository.save(new Member(PLAIN, 10000));
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.delete(HOT);
+        repository.delete(PLAIN);
+    }
+
+    @Test
+    void creditsAreSummed() {
+        enableSharding(HOT, 4);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(repository.adjustBalance(HOT, 100, 0)).isTrue();
+        }
+
+        assertThat(repository.shardCount(HOT)).isEqualTo(4);
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(2000);
+        assertThat(repository.findAllById(List.of(HOT, PLAIN)).get(HOT).getMoney()).isEqualTo(2000);
+        //입금은 member row 를 수정하지 않는다.
+        assertThat(memberRepository.findById(HOT).getMoney()).isEqualTo(0);
+    }
+
+    /**
+     * 캐시가 비어 있어도 회원마다 shard 수를 따로 조회하지 않고, 합계 쿼리의 결과로 캐시를 채운다.
+     */
+    @Test
+    void shardCountsLoadedWithSums() {
+        enableSharding(HOT, 4);
+        repository.adjustBalance(HOT, 700, 0);
+
+        ShardedBalanceMemberRepository coldRepository = new ShardedBalanceMemberRepository(memberRepository, dataSource);
+        Map<String, Member> members = coldRepository.findAllById(List.of(HOT, PLAIN));
+        assertThat(members.get(HOT).getMoney()).isEqualTo(700);
+        assertThat(members.get(PLAIN).getMoney()).isEqualTo(10000);
+        assertThat(coldRepository.shardCount(HOT)).isEqualTo(4);
+        assertThat(coldRepository.shardCount(PLAIN)).isEqualTo(0);
+
+        ShardedBalanceMemberRepository singleRepository = new ShardedBalanceMemberRepository(memberRepository, dataSource);
+        assertThat(singleRepository.findById(HOT).getMoney()).isEqualTo(700);
+        assertThat(singleRepository.shardCount(HOT)).isEqualTo(4);
+    }
+
+    @Test
+    void debitConsolidatesShards() {
+        enableSharding(HOT, 4);
+        for (int i = 0; i < 4; i++) {
+            repository.adjustBalance(HOT, 100, 0);
+        }
+
+        //shard 하나로는 부족하므로 모든 shard 를 합친 뒤 출금한다.
+        Boolean debited = txTemplate.execute(status -> repository.adjustBalance(HOT, -350, 0));
+        assertThat(debited).isTrue();
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(50);
+
+        //잔액 부족이면 반영하지 않는다.
+        Boolean overdrawn = txTemplate.execute(status -> repository.adjustBalance(HOT, -100, 0));
+        assertThat(overdrawn).isFalse();
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(50);
+    }
+
+    @Test
+    void transfer() {
+        enableSharding(HOT, 4);
+
+        assertThat(transfer(PLAIN, HOT, 3000)).isPresent();
+        assertThat(transfer(HOT, PLAIN, 1000)).isPresent();
+        assertThat(transfer(HOT, PLAIN, 5000)).isEmpty();
+
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(2000);
+        assertThat(repository.findById(PLAIN).getMoney()).isEqualTo(8000);
+    }
+
+    private Optional<TransferResult> transfer(String fromId, String toId, int money) {
+        return txTemplate.execute(status -> repository.transfer(fromId, toId, money));
+    }
+
+    @Test
+    void adjustAllLocksDebitedMembersFirst() {
+        enableSharding(HOT, 4);
+        repository.adjustBalance(HOT, 1000, 0);
+
+        Integer applied = txTemplate.execute(status -> repository.adjustAll(Map.of(HOT, -600, PLAIN, 600), 0));
+
+        assertThat(applied).isEqualTo(2);
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(400);
+        assertThat(repository.findById(PLAIN).getMoney()).isEqualTo(10600);
+    }
+
+    /**
+     * 분할된 회원의 출금, 이체, 분할 시작과 해제는 여러 문장이므로 트랜잭션 없이 호출하면 실행하지 않는다.
+     */
+    @Test
+    void requiresTransaction() {
+        enableSharding(HOT, 4);
+        repository.adjustBalance(HOT, 1000, 0);
+
+        assertThatThrownBy(() -> repository.transfer(HOT, PLAIN, 100))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> repository.adjustBalance(HOT, -100, 0))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> repository.enableSharding(HOT, 2))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> repository.disableSharding(HOT))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(repository.shardCount(HOT)).isEqualTo(4);
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(1000);
+        assertThat(repository.findById(PLAIN).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void updateDrainsShards() {
+        enableSharding(HOT, 4);
+        repository.adjustBalance(HOT, 500, 0);
+
+        repository.update(HOT, 100);
+
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(100);
+    }
+
+    @Test
+    void disableShardingFoldsIntoMember() {
+        enableSharding(HOT, 8);
+        for (int i = 0; i < 10; i++) {
+            repository.adjustBalance(HOT, 10, 0);
+        }
+
+        enableSharding(HOT, 2);
+        assertThat(repository.findById(HOT).getMoney()).isEqualTo(100);
+
+        txTemplate.executeWithoutResult(status -> repository.disableSharding(HOT));
+        assertThat(repository.shardCount(HOT)).isEqualTo(0);
+        assertThat(memberRepository.findById(HOT).getMoney()).isEqualTo(100);
+    }
+
+    private void enableSharding(String memberId, int shards) {
+        txTemplate.executeWithoutResult(status -> repository.enableSharding(memberId, shards));
+    }
+}
@@ -0,0 +1,77 @@
+package thespeace.jdbc.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import thespeace.jdbc.domain.Member;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static thespeace.jdbc.connection.ConnectionConst.*;
+
+/**
+ * <h1>작업 단위 - 커밋 직전에 한 번의 배치로 반영</h1>
+ */
+class UnitOfWorkMemberRepositoryTest {
+
+    private static final String MEMBER_A = "uowA";
+    private static final String MEMBER_B = "uowB";
+
+    MemberRepository directRepository;
+    UnitOfWorkMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        directRepository = new MemberRepositoryV5(dataSource);
+        repository = new UnitOfWorkMemberRepository(directRepository);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        directRepository.save(new Member(MEMBER_A, 10000));
+        directRepository.save(new Member(MEMBER_B, 10000));
+    }
+
+    @AfterEach
+    void afterEach() {
+        directRepository.delete(MEMBER_A);
+        directRepository.delete(MEMBER_B);
+    }
+
+    @Test
+    void flushBeforeCommit() {
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_B, 12000);
+            repository.update(MEMBER_A, 9000);
+            repository.update(MEMBER_A, 8000);
+
+            //같은 트랜잭션에서는 기록한 잔액이 보인다.
+            assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        });
+
+        assertThat(directRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(directRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    void discardOnRollback() {
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 8000);
+            throw new IllegalStateException("이체 중 예외 발생");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(directRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void flushBeforeAdjustBalance() {
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 100);
+            assertThat(repository.adjustBalance(MEMBER_A, -500, 0)).isFalse();
+        });
+
+        assertThat(directRepository.findById(MEMBER_A).getMoney()).isEqualTo(100);
+    }
+}
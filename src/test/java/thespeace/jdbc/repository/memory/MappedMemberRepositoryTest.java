@@ -0,0 +1,157 @@
+package thespeace.jdbc.repository.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.ex.MyDuplicateKeyException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+class MappedMemberRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void crud() {
+        try (MappedMemberRepository repository = new MappedMemberRepository(dir.resolve("member.db"), 1000, MemberIdCodec.MAX_KEY_BYTES)) {
+            Member member = new Member("memberV0", 10000);
+            repository.save(member);
+
+            assertThat(repository.findById(member.getMemberId())).isEqualTo(member);
+            assertThatThrownBy(() -> repository.save(member))
+                    .isInstanceOf(MyDuplicateKeyException.class);
+
+            repository.update(member.getMemberId(), 20000);
+            assertThat(repository.findById(member.getMemberId()).getMoney()).isEqualTo(20000);
+
+            repository.delete(member.getMemberId());
+            assertThatThrownBy(() -> repository.findById(member.getMemberId()))
+                    .isInstanceOf(NoSuchElementException.class);
+        }
+    }
+
+    @Test
+    void reopen() {
+        Path file = dir.resolve("member.db");
+        try (MappedMemberRepository repository = new MappedMemberRepository(file, 100_000, MemberIdCodec.MAX_KEY_BYTES)) {
+            for (int i = 0; i < 100_000; i++) {
+                repository.save(new Member("m" + i, i));
+            }
+            repository.delete("m0");
+            repository.adjustBalance("m1", 10, 0);
+        }
+
+        try (MappedMemberRepository repository = new MappedMemberRepository(file, 100_000, MemberIdCodec.MAX_KEY_BYTES)) {
+            assertThat(repository.size()).isEqualTo(99_999);
+            assertThat(repository.existsById("m0")).isFalse();
+            assertThat(repository.findById("m1").getMoney()).isEqualTo(11);
+            assertThat(repository.findById("m99999").getMoney()).isEqualTo(99999);
+        }
+    }
+
+    @Test
+    void reopenWithDifferentLayout() {
+        Path file = dir.resolve("member.db");
+        try (MappedMemberRepository repository = new MappedMemberRepository(file, 1000, MemberIdCodec.MAX_KEY_BYTES)) {
+            repository.save(new Member("memberV0", 10000));
+        }
+
+        assertThatThrownBy(() -> new MappedMemberRepository(file, 100_000, MemberIdCodec.MAX_KEY_BYTES))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new MappedMemberRepository(file, 1000, 10))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * 서로 다른 id 를 추가하고 삭제하기를 반복해도 tombstone 이 정리되므로 가득 차지 않는다.
+     */
+    @Test
+    void churnReclaimsDeletedSlots() {
+        try (MappedMemberRepository repository = new MappedMemberRepository(dir.resolve("member.db"), 1000, MemberIdCodec.MAX_KEY_BYTES)) {
+            for (int i = 0; i < 500; i++) {
+                repository.save(new Member("keep" + i, i));
+            }
+            for (int i = 0; i < 100_000; i++) {
+                repository.save(new Member("m" + i, i));
+                repository.delete("m" + i);
+            }
+
+            assertThat(repository.size()).isEqualTo(500);
+            for (int i = 0; i < 500; i++) {
+                assertThat(repository.findById("keep" + i).getMoney()).isEqualTo(i);
+            }
+        }
+    }
+
+    /**
+     * tombstone 정리 중에 프로세스가 죽어서 레코드가 두 번 남은 파일을 흉내 낸다.
+     * 다시 열면 두 번째 레코드를 지우므로, 삭제한 회원이 다시 보이거나 페이지 조회에 두 번 나오지 않는다.
+     */
+    @Test
+    void recoverInterruptedPurge() throws IOException {
+        Path file = dir.resolve("member.db");
+        String memberId = "memberV0";
+        try (MappedMemberRepository repository = new MappedMemberRepository(file, 1000, MemberIdCodec.MAX_KEY_BYTES)) {
+            repository.save(new Member(memberId, 10000));
+        }
+        simulateInterruptedPurge(file, memberId);
+
+        try (MappedMemberRepository repository = new MappedMemberRepository(file, 1000, MemberIdCodec.MAX_KEY_BYTES)) {
+            assertThat(repository.size()).isEqualTo(1);
+            assertThat(repository.findPageAfter(null, 10).getMembers()).hasSize(1);
+
+            repository.delete(memberId);
+            assertThat(repository.existsById(memberId)).isFalse();
+            assertThat(repository.findPageAfter(null, 10).getMembers()).isEmpty();
+        }
+    }
+
+    @Test
+    void full() {
+        try (MappedMemberRepository repository = new MappedMemberRepository(dir.resolve("member.db"), 100, MemberIdCodec.MAX_KEY_BYTES)) {
+            assertThatThrownBy(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    repository.save(new Member("m" + i, i));
+                }
+            }).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    /**
+     * 회원 레코드를 탐색 경로의 다음 슬롯에 한 번 더 쓰고 세그먼트 헤더의 purging 을 켠다. (파일 구조는 MappedMemberRepository 참고)
+     */
+    private void simulateInterruptedPurge(Path file, String memberId) throws IOException {
+        int fileHeaderBytes = 64;
+        int segmentHeaderBytes = 64;
+        int purgingOffset = 8;
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(20);
+            channel.read(header, 0);
+            int segmentCount = header.getInt(8);
+            int segmentCapacity = header.getInt(12);
+            int maxKeyBytes = header.getInt(16);
+            int recordBytes = 1 + maxKeyBytes + 4;
+            long segmentBytes = segmentHeaderBytes + (long) segmentCapacity * recordBytes;
+
+            byte[] key = MemberIdCodec.encode(memberId, maxKeyBytes);
+            int hash = MemberIdCodec.hash(key);
+            long segmentOffset = fileHeaderBytes + (hash & (segmentCount - 1)) * segmentBytes;
+            int slot = MemberIdCodec.slot(hash, segmentCapacity); //회원이 하나뿐이므로 첫 슬롯에 있다.
+            ByteBuffer record = ByteBuffer.allocate(recordBytes);
+            channel.read(record, segmentOffset + segmentHeaderBytes + (long) slot * recordBytes);
+            record.flip();
+            channel.write(record, segmentOffset + segmentHeaderBytes + (long) ((slot + 1) % segmentCapacity) * recordBytes);
+            channel.write(ByteBuffer.allocate(4).putInt(0, 1), segmentOffset + purgingOffset);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package thespeace.jdbc.repository.memory;
+
+import org.junit.jupiter.api.Test;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberPage;
+import thespeace.jdbc.repository.ex.MyDuplicateKeyException;
+import thespeace.jdbc.service.MemberServiceV4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryMemberRepositoryTest {
+
+    MemoryMemberRepository repository = new MemoryMemberRepository();
+
+    @Test
+    void crud() {
+        Member member = new Member("memberV0", 10000);
+        repository.save(member);
+
+        assertThat(repository.findById(member.getMemberId())).isEqualTo(member);
+        assertThatThrownBy(() -> repository.save(member))
+                .isInstanceOf(MyDuplicateKeyException.class);
+
+        repository.update(member.getMemberId(), 20000);
+        assertThat(repository.findById(member.getMemberId()).getMoney()).isEqualTo(20000);
+
+        repository.delete(member.getMemberId());
+        assertThatThrownBy(() -> repository.findById(member.getMemberId()))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(repository.findOptionalById(member.getMemberId())).isEmpty();
+    }
+
+    /**
+     * 저장할 수 없는 길이의 id 는 없는 회원과 같다. 저장만 예외를 던진다.
+     */
+    @Test
+    void tooLongIdIsNotFound() {
+        String tooLong = "x".repeat(MemberIdCodec.MAX_KEY_BYTES + 1);
+
+        assertThatThrownBy(() -> repository.findById(tooLong))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(repository.findOptionalById(tooLong)).isEmpty();
+        assertThat(repository.existsById(tooLong)).isFalse();
+        assertThat(repository.adjustBalance(tooLong, 1000, 0)).isFalse();
+        repository.delete(tooLong);
+        assertThatThrownBy(() -> repository.save(new Member(tooLong, 10000)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void growAndReuseDeletedSlots() {
+        for (int i = 0; i < 100_000; i++) {
+            repository.save(new Member("m" + i, i));
+        }
+        for (int i = 0; i < 100_000; i += 2) {
+            repository.delete("m" + i);
+        }
+        for (int i = 0; i < 100_000; i += 2) {
+            repository.save(new Member("m" + i, -i));
+        }
+
+        assertThat(repository.size()).isEqualTo(100_000);
+        assertThat(repository.findById("m99998").getMoney()).isEqualTo(-99998);
+        assertThat(repository.findById("m99999").getMoney()).isEqualTo(99999);
+    }
+
+    @Test
+    void findPageAfter() {
+        for (int i = 0; i < 25; i++) {
+            repository.save(new Member(String.format("p%02d", i), i));
+        }
+
+        List<String> memberIds = new ArrayList<>();
+        String pageToken = null;
+        do {
+            MemberPage page = repository.findPageAfter(pageToken, 7);
+            page.getMembers().forEach(member -> memberIds.add(member.getMemberId()));
+            pageToken = page.getNextToken();
+        } while (pageToken != null);
+
+        assertThat(memberIds).hasSize(25).isSorted();
+    }
+
+    @Test
+    void concurrentAdjustBalance() throws Exception {
+        repository.save(new Member("hot", 0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    repository.adjustBalance("hot", 1, 0);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(repository.findById("hot").getMoney()).isEqualTo(80_000);
+        assertThat(repository.adjustBalance("hot", -80_001, 0)).isFalse();
+    }
+
+    @Test
+    void memberServiceV4() {
+        repository.save(new Member("memberA", 10000));
+        repository.save(new Member("memberB", 10000));
+
+        new MemberServiceV4(repository).accountTransfer("memberA", "memberB", 2000);
+
+        assertThat(repository.findById("memberA").getMoney()).isEqualTo(8000);
+        assertThat(repository.findById("memberB").getMoney()).isEqualTo(12000);
+    }
+}
@@ -0,0 +1,105 @@
+package thespeace.jdbc.repository.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import thespeace.jdbc.domain.Member;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * <h1>WAL 복구 시간 벤치마크 - 1000만 계좌</h1>
+ * 기본 test 태스크에서는 제외된다. {@code ./gradlew benchmark}로 실행한다.
+ * <ul>
+ *     <li>스냅샷 + 마지막 스냅샷 이후의 로그 100만 건을 복구하는 시간</li>
+ *     <li>로그만으로 복구하는 시간(스냅샷 없음)</li>
+ * </ul>
+ */
+@Slf4j
+@Tag("benchmark")
+class WalMemberRepositoryBenchmark {
+
+    static final int ACCOUNTS = 10_000_000;
+    static final int UPDATES = 1_000_000;
+    static final int THREADS = 32;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoverFromSnapshotAndWal() throws Exception {
+        try (WalMemberRepository repository = open(Long.MAX_VALUE)) {
+            load(repository);
+            repository.checkpoint();
+            update(repository);
+        }
+
+        long start = System.nanoTime();
+        try (WalMemberRepository repository = open(Long.MAX_VALUE)) {
+            log.info("recover snapshot + wal elapsed={}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            assertThat(repository.size()).isEqualTo(ACCOUNTS);
+        }
+    }
+
+    @Test
+    void recoverFromWalOnly() throws Exception {
+        try (WalMemberRepository repository = open(Long.MAX_VALUE)) {
+            load(repository);
+        }
+
+        long start = System.nanoTime();
+        try (WalMemberRepository repository = open(Long.MAX_VALUE)) {
+            log.info("recover wal only elapsed={}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            assertThat(repository.size()).isEqualTo(ACCOUNTS);
+        }
+    }
+
+    private WalMemberRepository open(long maxWalBytes) {
+        return new WalMemberRepository(dir, new MemoryMemberRepository(10, 64, ACCOUNTS), maxWalBytes);
+    }
+
+    private void load(WalMemberRepository repository) {
+        long start = System.nanoTime();
+        List<Member> members = new ArrayList<>(100_000);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            members.add(new Member("a" + i, 10000));
+            if (members.size() == 100_000) {
+                repository.saveAll(members);
+                members.clear();
+            }
+        }
+        log.info("load accounts={} elapsed={}ms", ACCOUNTS, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 여러 쓰레드가 동시에 쓰면 fsync 한 번에 여러 레코드가 기록된다. (group commit)
+     */
+    private void update(WalMemberRepository repository) throws Exception {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = thread; i < UPDATES; i += THREADS) {
+                    repository.adjustBalance("a" + (i * 7L % ACCOUNTS), 1, 0);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        log.info("update count={} threads={} elapsed={}ms",
+                UPDATES, THREADS, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,140 @@
+package thespeace.jdbc.repository.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import thespeace.jdbc.domain.Member;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WalMemberRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recover() throws Exception {
+        try (WalMemberRepository repository = open()) {
+            List<Member> members = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                members.add(new Member("m" + i, i));
+            }
+            repository.saveAll(members);
+            repository.save(new Member("hot", 0));
+
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 500; j++) {
+                        repository.adjustBalance("hot", 1, 0);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            repository.delete("m0");
+            repository.update("m1", 111);
+        }
+
+        try (WalMemberRepository repository = open()) {
+            assertThat(repository.size()).isEqualTo(20_000);
+            assertThat(repository.findById("hot").getMoney()).isEqualTo(8000);
+            assertThat(repository.existsById("m0")).isFalse();
+            assertThat(repository.findById("m1").getMoney()).isEqualTo(111);
+            assertThat(repository.findById("m19999").getMoney()).isEqualTo(19999);
+        }
+    }
+
+    @Test
+    void checkpoint() {
+        try (WalMemberRepository repository = open()) {
+            repository.save(new Member("memberA", 10000));
+            repository.checkpoint();
+            repository.update("memberA", 20000);
+        }
+
+        try (WalMemberRepository repository = open()) {
+            assertThat(repository.findById("memberA").getMoney()).isEqualTo(20000);
+        }
+    }
+
+    @Test
+    void transfer() {
+        try (WalMemberRepository repository = open()) {
+            repository.save(new Member("memberA", 10000));
+            repository.save(new Member("memberB", 10000));
+
+            assertThat(repository.transfer("memberA", "memberB", 2000)).isPresent();
+            assertThat(repository.transfer("memberA", "memberB", 9000)).isEmpty(); //잔액 부족
+            assertThat(repository.transfer("memberA", "none", 1000)).isEmpty();
+        }
+
+        try (WalMemberRepository repository = open()) {
+            assertThat(repository.findById("memberA").getMoney()).isEqualTo(8000);
+            assertThat(repository.findById("memberB").getMoney()).isEqualTo(12000);
+        }
+    }
+
+    /**
+     * 로그 추가에 실패한 변경은 메모리에도 반영되지 않는다.
+     */
+    @Test
+    void appendFailureLeavesMemoryUnchanged() {
+        WalMemberRepository repository = open();
+        repository.save(new Member("memberA", 10000));
+        repository.close();
+
+        assertThatThrownBy(() -> repository.save(new Member("memberB", 10000)))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> repository.adjustBalance("memberA", 1000, 0))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> repository.delete("memberA"))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(repository.existsById("memberB")).isFalse();
+        assertThat(repository.findById("memberA").getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void truncateTornTail() throws IOException {
+        try (WalMemberRepository repository = open()) {
+            repository.save(new Member("memberA", 10000));
+        }
+        Path wal = lastWal();
+        long size = Files.size(wal);
+        Files.write(wal, new byte[]{0, 0, 0, 20, 1, 2, 3}, StandardOpenOption.APPEND); //쓰다 만 레코드
+
+        try (WalMemberRepository repository = open()) {
+            assertThat(repository.findById("memberA").getMoney()).isEqualTo(10000);
+        }
+        assertThat(Files.size(wal)).isEqualTo(size);
+    }
+
+    private WalMemberRepository open() {
+        return new WalMemberRepository(dir, new MemoryMemberRepository(), 64 * 1024);
+    }
+
+    private Path lastWal() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("wal-"))
+                    .max(Comparator.comparingLong(file -> Long.parseLong(file.getFileName().toString().replaceAll("\\D", ""))))
+                    .orElseThrow();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.domain.Transfer;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.MemberRepositoryV5;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+@SpringBootTest
+class MemberBatchServiceTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_C = "memberC";
+    public static final String MEMBER_EX = "ex";
+
+    @Autowired
+    MemberRepository memberRepository;
+    @Autowired
+    MemberBatchService memberBatchService;
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_C);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        private final PlatformTransactionManager transactionManager;
+        public TestConfig(DataSource dataSource, PlatformTransactionManager transactionManager) {
+            this.dataSource = dataSource;
+            this.transactionManager = transactionManager;
+        }
+        @Bean
+        MemberRepository memberRepository() {
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberBatchService memberBatchService() {
+            return new MemberBatchService(transactionManager, memberRepository());
+        }
+    }
+
+    @Test
+    @DisplayName("순 증감액으로 이체")
+    void accountTransferBatch() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberRepository.save(new Member(MEMBER_C, 0));
+
+        //when
+        memberBatchService.accountTransferBatch(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 3000),
+                new Transfer(MEMBER_B, MEMBER_C, 1000),
+                new Transfer(MEMBER_C, MEMBER_A, 500),
+                new Transfer(MEMBER_A, MEMBER_B, 2000)));
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(5500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(14000);
+        assertThat(memberRepository.findById(MEMBER_C).getMoney()).isEqualTo(500);
+    }
+
+    @Test
+    @DisplayName("중간에 잔액이 부족해지는 순서여도 최종 결과가 음수가 아니면 성공")
+    void nettedOrderIndependent() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 0));
+        memberRepository.save(new Member(MEMBER_B, 1000));
+        memberRepository.save(new Member(MEMBER_C, 0));
+
+        //when
+        memberBatchService.accountTransferBatch(List.of(
+                new Transfer(MEMBER_A, MEMBER_C, 1000),
+                new Transfer(MEMBER_B, MEMBER_A, 1000)));
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(0);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(0);
+        assertThat(memberRepository.findById(MEMBER_C).getMoney()).isEqualTo(1000);
+    }
+
+    @Test
+    @DisplayName("잔액 부족이면 전체 취소")
+    void overdraft() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 1000));
+
+        //when
+        assertThatThrownBy(() -> memberBatchService.accountTransferBatch(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 3000),
+                new Transfer(MEMBER_B, MEMBER_A, 5000))))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(1000);
+    }
+
+    @Test
+    @DisplayName("없는 회원이 있으면 전체 취소")
+    void unknownMember() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberBatchService.accountTransferBatch(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 1000),
+                new Transfer(MEMBER_A, MEMBER_C, 1000))))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("실패한 이체만 savepoint 까지 롤백하고 나머지는 커밋")
+    void accountTransferEach() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when
+        List<TransferOutcome> outcomes = memberBatchService.accountTransferEach(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 1000),
+                new Transfer(MEMBER_A, MEMBER_EX, 1000),
+                new Transfer(MEMBER_B, MEMBER_A, 100000),
+                new Transfer(MEMBER_A, MEMBER_B, 1000)));
+
+        //then
+        assertThat(outcomes).extracting(TransferOutcome::isSucceeded).containsExactly(true, false, false, true);
+        assertThat(outcomes.get(1).getException()).isInstanceOf(IllegalStateException.class);
+        assertThat(outcomes.get(3).getResult().getFromMember().getMoney()).isEqualTo(8000);
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+}
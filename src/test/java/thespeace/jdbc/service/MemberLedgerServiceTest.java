@@ -0,0 +1,241 @@
+package thespeace.jdbc.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import thespeace.jdbc.domain.LedgerEntry;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.domain.Transfer;
+import thespeace.jdbc.repository.LedgerPage;
+import thespeace.jdbc.repository.MemberLedgerRepository;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.MemberRepositoryV5;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * member_transfer, member_balance_delta 테이블이 필요하다. 스키마는 {@link MemberLedgerRepository} 참고
+ */
+@SpringBootTest
+class MemberLedgerServiceTest {
+
+    public static final String MEMBER_A = "ledgerA";
+    public static final String MEMBER_B = "ledgerB";
+    public static final String MEMBER_C = "ledgerC";
+
+    @Autowired
+    MemberRepository memberRepository;
+    @Autowired
+    MemberLedgerRepository ledgerRepository;
+    @Autowired
+    MemberLedgerService ledgerService;
+    @Autowired
+    LedgerCompactor compactor;
+    @Autowired
+    TickingClock clock;
+
+    @AfterEach
+    void after() {
+        for (String memberId : List.of(MEMBER_A, MEMBER_B, MEMBER_C)) {
+            ledgerRepository.deleteDeltas(memberId);
+            memberRepository.delete(memberId);
+        }
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        private final PlatformTransactionManager transactionManager;
+        public TestConfig(DataSource dataSource, PlatformTransactionManager transactionManager) {
+            this.dataSource = dataSource;
+            this.transactionManager = transactionManager;
+        }
+        @Bean
+        MemberRepository memberRepository() {
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberLedgerRepository memberLedgerRepository() {
+            return new MemberLedgerRepository(dataSource);
+        }
+        @Bean
+        TickingClock tickingClock() {
+            return new TickingClock(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+        }
+        @Bean
+        MemberLedgerService memberLedgerService() {
+            return new MemberLedgerService(transactionManager, memberRepository(), memberLedgerRepository(), tickingClock());
+        }
+        @Bean
+        LedgerCompactor ledgerCompactor() {
+            //테스트에서는 compact()를 직접 호출한다.
+            return new LedgerCompactor(transactionManager, memberLedgerRepository(), 2, Duration.ofHours(1));
+        }
+    }
+
+    @Test
+    @DisplayName("이체는 원장에만 기록되고 compact 후 스냅샷에 반영된다")
+    void accountTransfer() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        ledgerService.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+
+        //then
+        assertThat(ledgerService.findBalance(MEMBER_A)).isEqualTo(8000);
+        assertThat(ledgerService.findBalance(MEMBER_B)).isEqualTo(12000);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000); //스냅샷
+
+        compactor.compact();
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+        assertThat(ledgerService.findBalance(MEMBER_A)).isEqualTo(8000);
+        assertThat(ledgerService.findBalance(MEMBER_B)).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("잔액 부족이면 묶음 전체를 롤백")
+    void insufficientBalance() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 0));
+        memberRepository.save(new Member(MEMBER_C, 0));
+
+        //when
+        assertThatThrownBy(() -> ledgerService.accountTransfer(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 5000),
+                new Transfer(MEMBER_B, MEMBER_C, 6000))))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(ledgerService.findBalance(MEMBER_A)).isEqualTo(10000);
+        assertThat(ledgerService.findBalance(MEMBER_B)).isEqualTo(0);
+        assertThat(ledgerService.findBalance(MEMBER_C)).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("순 증감액으로 검사하므로 받은 돈으로 다시 보낼 수 있다")
+    void batchNetting() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 0));
+        memberRepository.save(new Member(MEMBER_C, 0));
+
+        //when
+        ledgerService.accountTransfer(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 5000),
+                new Transfer(MEMBER_B, MEMBER_C, 3000)));
+
+        //then
+        assertThat(ledgerService.findBalance(MEMBER_A)).isEqualTo(5000);
+        assertThat(ledgerService.findBalance(MEMBER_B)).isEqualTo(2000);
+        assertThat(ledgerService.findBalance(MEMBER_C)).isEqualTo(3000);
+    }
+
+    @Test
+    @DisplayName("기간 이체 조회 keyset 페이지")
+    void findTransfers() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        Instant from = clock.instant();
+        for (int i = 1; i <= 5; i++) {
+            if (i % 2 == 0) {
+                ledgerService.accountTransfer(MEMBER_B, MEMBER_A, i);
+            } else {
+                ledgerService.accountTransfer(MEMBER_A, MEMBER_B, i);
+            }
+        }
+        Instant to = clock.instant();
+
+        //when
+        List<LedgerEntry> entries = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String pageToken = null;
+        do {
+            LedgerPage page = ledgerService.findTransfers(MEMBER_A, from, to, pageToken, 2);
+            entries.addAll(page.getEntries());
+            pageSizes.add(page.getEntries().size());
+            pageToken = page.getNextToken();
+        } while (pageToken != null);
+
+        //then
+        assertThat(pageSizes).isEqualTo(List.of(2, 2, 1));
+        assertThat(entries.stream().map(LedgerEntry::getAmount).toList()).isEqualTo(List.of(1, 2, 3, 4, 5));
+        assertThat(ledgerService.findTransfers(MEMBER_A, from.plusMillis(2), from.plusMillis(4), null, 10)
+                .getEntries().size()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("반영할 수 없는 증감액은 맨 뒤로 옮기고 다른 회원의 증감액은 계속 반영한다")
+    void compactOverflow() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, Integer.MAX_VALUE - 10));
+        memberRepository.save(new Member(MEMBER_B, 0));
+        ledgerRepository.append(List.of(), Map.of(MEMBER_A, 100L, MEMBER_B, 100L), clock.instant());
+        ledgerRepository.append(List.of(), Map.of(MEMBER_B, 50L), clock.instant());
+
+        //when
+        compactor.compact();
+        compactor.compact(); //반영할 수 없는 증감액이 있는 chunk 에서 멈추므로 다음 주기에 이어서 반영한다.
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(Integer.MAX_VALUE - 10);
+        assertThat(ledgerService.findBalance(MEMBER_A)).isEqualTo(Integer.MAX_VALUE + 90L);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(150);
+
+        //출금으로 범위 안에 들어오면 반영된다.
+        ledgerRepository.append(List.of(), Map.of(MEMBER_A, -1000L), clock.instant());
+        compactor.compact();
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(Integer.MAX_VALUE - 910);
+        assertThat(ledgerService.findBalance(MEMBER_A)).isEqualTo(Integer.MAX_VALUE - 910);
+    }
+
+    /**
+     * instant()를 호출할 때마다 1ms 씩 증가하는 시계
+     */
+    static class TickingClock extends Clock {
+
+        private Instant now;
+
+        TickingClock(Instant start) {
+            this.now = start;
+        }
+
+        @Override
+        public synchronized Instant instant() {
+            now = now.plusMillis(1);
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
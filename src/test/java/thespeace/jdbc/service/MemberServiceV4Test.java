@@ -16,6 +16,12 @@ import thespeace.jdbc.repository.MemberRepositoryV4_2;
 import thespeace.jdbc.repository.MemberRepositoryV5;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -126,4 +132,48 @@ class MemberServiceV4Test {
         assertThat(findMemberA.getMoney()).isEqualTo(10000);
         assertThat(findMemberB.getMoney()).isEqualTo(10000);
     }
-}
\ No newline at end of file
+
+    /**
+     * 64개 쓰레드가 A->B, B->A 이체를 번갈아 실행한다. 잠금 순서가 항상 같으므로 교착 상태나 락 타임아웃 없이 모두 성공해야 한다.
+     */
+    @Test
+    @DisplayName("반대 방향 동시 이체")
+    void concurrentOppositeTransfers() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        int threads = 64;
+        int transfersPerThread = 10;
+
+        //when
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < transfersPerThread; i++) {
+                    try {
+                        if ((thread + i) % 2 == 0) {
+                            memberService.accountTransfer(MEMBER_A, MEMBER_B, 10);
+                        } else {
+                            memberService.accountTransfer(MEMBER_B, MEMBER_A, 10);
+                        }
+                    } catch (RuntimeException e) {
+                        log.error("transfer failed", e);
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        //then
+        assertThat(failures.get()).isZero();
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+}
@@ -0,0 +1,185 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.MemberRepositoryV4_1;
+import thespeace.jdbc.repository.MemberRepositoryV4_2;
+import thespeace.jdbc.repository.MemberRepositoryV5;
+import thespeace.jdbc.repository.TransferResult;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * <h2>한 문장 이체</h2>
+ * {@link MemberServiceV4Test}와 같은 시나리오를 {@link MemberRepository#transfer(String, String, int)}로 검증한다.
+ */
+@Slf4j
+@SpringBootTest
+class MemberServiceV4_1Test {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    @Autowired
+    MemberRepository memberRepository;
+    @Autowired
+    MemberServiceV4_1 memberService;
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        public TestConfig(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+        @Bean
+        MemberRepository memberRepository() {
+//            return new MemberRepositoryV4_1(dataSource); //단순 예외 변환
+//            return new MemberRepositoryV4_2(dataSource); //스프링 예외 변환
+            return new MemberRepositoryV5(dataSource); //JdbcTemplate
+        }
+        @Bean
+        MemberServiceV4_1 memberServiceV4_1() {
+            return new MemberServiceV4_1(memberRepository());
+        }
+    }
+
+    @Test
+    @DisplayName("정상 이체")
+    void accountTransfer() {
+        //given
+        Member memberA = new Member(MEMBER_A, 10000);
+        Member memberB = new Member(MEMBER_B, 10000);
+        memberRepository.save(memberA);
+        memberRepository.save(memberB);
+
+        //when
+        TransferResult result = memberService.accountTransfer(memberA.getMemberId(), memberB.getMemberId(), 2000);
+
+        //then
+        assertThat(result.getFromMember()).isEqualTo(new Member(MEMBER_A, 8000));
+        assertThat(result.getToMember()).isEqualTo(new Member(MEMBER_B, 12000));
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("잔액 부족")
+    void accountTransferOverdraft() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 1000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(1000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+
+    /**
+     * 여러 트랜잭션이 같은 잔액을 보고 동시에 출금해도 잔액이 음수가 되지 않아야 한다.
+     * 실패한 이체는 잔액 부족(IllegalStateException) 또는 한 row 만 수정된 경우의 예외로 롤백된다.
+     */
+    @Test
+    @DisplayName("동시 출금 잔액 부족")
+    void accountTransferConcurrentOverdraft() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 3000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+
+        //when
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    memberService.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+                    return true;
+                } catch (RuntimeException e) {
+                    log.info("transfer failed", e);
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int succeeded = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get()) {
+                succeeded++;
+            }
+        }
+        executor.shutdown();
+
+        //then
+        assertThat(succeeded).isEqualTo(3);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(0);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(13000);
+    }
+
+    @Test
+    @DisplayName("없는 회원에게 이체")
+    void accountTransferToUnknown() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("이체 중 예외 발생")
+    void accountTransferEx() {
+        //given
+        Member memberA = new Member(MEMBER_A, 10000);
+        Member memberEx = new Member(MEMBER_EX, 10000);
+        memberRepository.save(memberA);
+        memberRepository.save(memberEx);
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(memberA.getMemberId(), memberEx.getMemberId(), 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        Member findMemberA = memberRepository.findById(memberA.getMemberId());
+        Member findMemberB = memberRepository.findById(memberEx.getMemberId());
+
+        //트랜잭션 롤백으로 복구
+        assertThat(findMemberA.getMoney()).isEqualTo(10000);
+        assertThat(findMemberB.getMoney()).isEqualTo(10000);
+    }
+}
@@ -0,0 +1,149 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepositoryV5;
+import thespeace.jdbc.repository.VersionedMemberRepository;
+import thespeace.jdbc.repository.ex.MyOptimisticLockException;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+@SpringBootTest
+class MemberServiceV4_2Test {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    @Autowired
+    VersionedMemberRepository memberRepository;
+    @Autowired
+    MemberServiceV4_2 memberService;
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        private final PlatformTransactionManager transactionManager;
+        public TestConfig(DataSource dataSource, PlatformTransactionManager transactionManager) {
+            this.dataSource = dataSource;
+            this.transactionManager = transactionManager;
+        }
+        @Bean
+        VersionedMemberRepository memberRepository() {
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberServiceV4_2 memberServiceV4_2() {
+            return new MemberServiceV4_2(transactionManager, memberRepository(), 1000);
+        }
+    }
+
+    @Test
+    @DisplayName("정상 이체")
+    void accountTransfer() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+
+        //then
+        Member findMemberA = memberRepository.findById(MEMBER_A);
+        Member findMemberB = memberRepository.findById(MEMBER_B);
+        assertThat(findMemberA.getMoney()).isEqualTo(8000);
+        assertThat(findMemberB.getMoney()).isEqualTo(12000);
+        assertThat(findMemberA.getVersion()).isEqualTo(1);
+        assertThat(findMemberB.getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("이체 중 예외 발생")
+    void accountTransferEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("이전 version 으로 수정하면 충돌")
+    void staleVersion() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        Member memberA = memberRepository.findById(MEMBER_A);
+        memberRepository.update(MEMBER_A, 20000); //다른 트랜잭션의 수정
+
+        //when
+        assertThatThrownBy(() -> memberRepository.updateWithVersion(MEMBER_A, 9000, memberA.getVersion()))
+                .isInstanceOf(MyOptimisticLockException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(20000);
+    }
+
+    @Test
+    @DisplayName("동시 이체는 충돌하면 다시 조회해서 재시도")
+    void concurrentTransfers() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10; i++) {
+                    if ((thread + i) % 2 == 0) {
+                        memberService.accountTransfer(MEMBER_A, MEMBER_B, 10);
+                    } else {
+                        memberService.accountTransfer(MEMBER_B, MEMBER_A, 10);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        log.info("conflicts={}", memberService.getConflictCount());
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+}
@@ -0,0 +1,167 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.MemberRepositoryV5;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+@SpringBootTest
+class MemberServiceV4_3Test {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_C = "memberC";
+    public static final String MEMBER_EX = "ex";
+
+    @Autowired
+    MemberRepository memberRepository;
+    @Autowired
+    MemberServiceV4_3 memberService;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_C);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        private final PlatformTransactionManager transactionManager;
+        public TestConfig(DataSource dataSource, PlatformTransactionManager transactionManager) {
+            this.dataSource = dataSource;
+            this.transactionManager = transactionManager;
+        }
+        @Bean
+        MemberRepository memberRepository() {
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberServiceV4_3 memberServiceV4_3() {
+            return new MemberServiceV4_3(transactionManager, memberRepository());
+        }
+    }
+
+    @Test
+    @DisplayName("정상 이체")
+    void accountTransfer() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("이체 중 예외 발생")
+    void accountTransferEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then 롤백되고 잠금도 풀려서 다음 이체가 가능해야 한다.
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+    }
+
+    @Test
+    @DisplayName("stripe 가 하나면 모든 회원이 같은 잠금을 사용한다")
+    void singleStripe() {
+        //given
+        MemberServiceV4_3 service = new MemberServiceV4_3(transactionManager, memberRepository, 1);
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        service.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+        service.accountTransfer(MEMBER_B, MEMBER_A, 500);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(11500);
+    }
+
+    /**
+     * 64개 쓰레드가 A->B, B->A, A->C 이체를 섞어서 실행한다. 커넥션 풀보다 쓰레드가 많아도
+     * 같은 회원에 대한 요청은 메모리에서 기다리므로 커넥션 타임아웃 없이 모두 성공해야 한다.
+     */
+    @Test
+    @DisplayName("같은 회원에 몰리는 동시 이체")
+    void concurrentHotAccountTransfers() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberRepository.save(new Member(MEMBER_C, 10000));
+        int threads = 64;
+        int transfersPerThread = 10;
+
+        //when
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < transfersPerThread; i++) {
+                    switch ((thread + i) % 3) {
+                        case 0 -> memberService.accountTransfer(MEMBER_A, MEMBER_B, 10);
+                        case 1 -> memberService.accountTransfer(MEMBER_B, MEMBER_A, 10);
+                        default -> memberService.accountTransfer(MEMBER_A, MEMBER_C, 1);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        //then
+        int[] counts = new int[3];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < transfersPerThread; i++) {
+                counts[(t + i) % 3]++;
+            }
+        }
+        int expectedB = 10000 + (counts[0] - counts[1]) * 10;
+        int expectedC = 10000 + counts[2];
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(expectedB);
+        assertThat(memberRepository.findById(MEMBER_C).getMoney()).isEqualTo(expectedC);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(30000 - expectedB - expectedC);
+    }
+}
@@ -0,0 +1,44 @@
+package thespeace.jdbc.service;
+
+import org.junit.jupiter.api.Test;
+import thespeace.jdbc.domain.Transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NetDeltasTest {
+
+    @Test
+    void net() {
+        NetDeltas net = NetDeltas.of(List.of(
+                new Transfer("memberA", "memberB", 3000),
+                new Transfer("memberB", "memberC", 1000),
+                new Transfer("memberC", "memberA", 500),
+                new Transfer("memberA", "memberB", 2000)));
+
+        assertThat(net.size()).isEqualTo(3);
+        assertThat(net.get("memberA")).isEqualTo(-4500);
+        assertThat(net.get("memberB")).isEqualTo(4000);
+        assertThat(net.get("memberC")).isEqualTo(500);
+        assertThat(net.get("none")).isZero();
+    }
+
+    @Test
+    void resize() {
+        List<Transfer> transfers = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            transfers.add(new Transfer("hot", "m" + i, 1));
+        }
+        NetDeltas net = new NetDeltas(1);
+        transfers.forEach(transfer -> {
+            net.add(transfer.getFromId(), -transfer.getMoney());
+            net.add(transfer.getToId(), transfer.getMoney());
+        });
+
+        assertThat(net.size()).isEqualTo(100_001);
+        assertThat(net.get("hot")).isEqualTo(-100_000);
+        assertThat(net.get("m99999")).isEqualTo(1);
+    }
+}
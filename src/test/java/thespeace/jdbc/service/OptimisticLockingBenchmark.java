@@ -0,0 +1,133 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.MemberRepositoryV5;
+import thespeace.jdbc.repository.VersionedMemberRepository;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>비관적 락(V4) vs 낙관적 락(V4_2) 이체 벤치마크</h1>
+ * 기본 test 태스크에서는 제외된다. {@code ./gradlew benchmark}로 실행한다.
+ * <ul>
+ *     <li>낮은 경합: 64개 쓰레드가 1000명 중 무작위 두 회원 사이에 이체한다.</li>
+ *     <li>높은 경합: 64개 쓰레드가 회원 2명 사이에서만 이체한다.</li>
+ * </ul>
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest
+class OptimisticLockingBenchmark {
+
+    static final int THREADS = 64;
+    static final int TRANSFERS_PER_THREAD = 100;
+    static final int LOW_CONTENTION_MEMBERS = 1000;
+
+    @Autowired
+    MemberRepository memberRepository;
+    @Autowired
+    MemberServiceV4 pessimisticService;
+    @Autowired
+    MemberServiceV4_2 optimisticService;
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        private final PlatformTransactionManager transactionManager;
+        public TestConfig(DataSource dataSource, PlatformTransactionManager transactionManager) {
+            this.dataSource = dataSource;
+            this.transactionManager = transactionManager;
+        }
+        @Bean
+        VersionedMemberRepository memberRepository() {
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberServiceV4 memberServiceV4() {
+            return new MemberServiceV4(memberRepository());
+        }
+        @Bean
+        MemberServiceV4_2 memberServiceV4_2() {
+            return new MemberServiceV4_2(transactionManager, memberRepository(), Integer.MAX_VALUE);
+        }
+    }
+
+    @AfterEach
+    void after() {
+        for (int i = 0; i < LOW_CONTENTION_MEMBERS; i++) {
+            memberRepository.delete("b" + i);
+        }
+    }
+
+    @Test
+    void lowContention() throws Exception {
+        setUp(LOW_CONTENTION_MEMBERS);
+        run("pessimistic low", LOW_CONTENTION_MEMBERS, pessimisticService::accountTransfer);
+        long conflicts = optimisticService.getConflictCount();
+        run("optimistic low", LOW_CONTENTION_MEMBERS, optimisticService::accountTransfer);
+        log.info("optimistic low conflicts={}", optimisticService.getConflictCount() - conflicts);
+    }
+
+    @Test
+    void highContention() throws Exception {
+        setUp(2);
+        run("pessimistic high", 2, pessimisticService::accountTransfer);
+        long conflicts = optimisticService.getConflictCount();
+        run("optimistic high", 2, optimisticService::accountTransfer);
+        log.info("optimistic high conflicts={}", optimisticService.getConflictCount() - conflicts);
+    }
+
+    private void setUp(int members) {
+        List<Member> list = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) {
+            list.add(new Member("b" + i, 1_000_000));
+        }
+        memberRepository.saveAll(list);
+    }
+
+    private void run(String name, int members, TransferAction action) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int from = random.nextInt(members);
+                    int to = (from + 1 + random.nextInt(members - 1)) % members;
+                    action.transfer("b" + from, "b" + to, 1);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        long elapsed = System.nanoTime() - start;
+        int transfers = THREADS * TRANSFERS_PER_THREAD;
+        log.info("{} transfers={} elapsed={}ms tps={}", name, transfers, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                transfers * 1_000_000_000L / elapsed);
+    }
+
+    interface TransferAction {
+        void transfer(String fromId, String toId, int money);
+    }
+}
@@ -0,0 +1,158 @@
+package thespeace.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import thespeace.jdbc.domain.Member;
+import thespeace.jdbc.repository.MemberRepository;
+import thespeace.jdbc.repository.MemberRepositoryV5;
+import thespeace.jdbc.repository.TransferResult;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+@SpringBootTest
+class TransferCoalescerTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_C = "memberC";
+    public static final String MEMBER_D = "memberD";
+    public static final String MEMBER_EX = "ex";
+
+    @Autowired
+    MemberRepository memberRepository;
+    @Autowired
+    TransferCoalescer transferCoalescer;
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_C);
+        memberRepository.delete(MEMBER_D);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        private final PlatformTransactionManager transactionManager;
+        public TestConfig(DataSource dataSource, PlatformTransactionManager transactionManager) {
+            this.dataSource = dataSource;
+            this.transactionManager = transactionManager;
+        }
+        @Bean
+        MemberRepository memberRepository() {
+            return new MemberRepositoryV5(dataSource);
+        }
+        @Bean
+        MemberBatchService memberBatchService() {
+            return new MemberBatchService(transactionManager, memberRepository());
+        }
+        @Bean
+        TransferCoalescer transferCoalescer() {
+            return new TransferCoalescer(memberBatchService(), 100, Duration.ofMillis(20), 2);
+        }
+    }
+
+    @Test
+    @DisplayName("동시 요청을 묶어서 처리")
+    void concurrentTransfers() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> transferCoalescer.accountTransfer(MEMBER_A, MEMBER_B, 10), executor)
+                    .thenCompose(future -> future));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+        executor.shutdown();
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    /**
+     * 두 worker 의 묶음에 (A, B), (C, D) 이체가 서로 다른 도착 순서로 섞여도 member_id 순서로 먼저 잠그므로 교착 상태가 생기지 않는다.
+     */
+    @Test
+    @DisplayName("여러 worker 가 같은 회원들을 다른 순서로 처리")
+    void crossingTransfers() throws Exception {
+        //given
+        String[] memberIds = {MEMBER_A, MEMBER_B, MEMBER_C, MEMBER_D};
+        for (String memberId : memberIds) {
+            memberRepository.save(new Member(memberId, 10000));
+        }
+
+        //when
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int pair = (i / 2) % 2 * 2; //A,B 또는 C,D
+            String fromId = memberIds[pair + i % 2];
+            String toId = memberIds[pair + 1 - i % 2];
+            futures.add(CompletableFuture.supplyAsync(() -> transferCoalescer.accountTransfer(fromId, toId, 10), executor)
+                    .thenCompose(future -> future));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        //then
+        for (String memberId : memberIds) {
+            assertThat(memberRepository.findById(memberId).getMoney()).isEqualTo(10000);
+        }
+    }
+
+    @Test
+    @DisplayName("실패한 요청만 savepoint 까지 롤백")
+    void failureIsolated() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when
+        CompletableFuture<TransferResult> first = transferCoalescer.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        CompletableFuture<TransferResult> ex = transferCoalescer.accountTransfer(MEMBER_A, MEMBER_EX, 1000);
+        CompletableFuture<TransferResult> overdraft = transferCoalescer.accountTransfer(MEMBER_B, MEMBER_A, 100000);
+        CompletableFuture<TransferResult> last = transferCoalescer.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+
+        //then
+        assertThat(first.get().getFromMember().getMoney()).isEqualTo(9000);
+        assertThat(last.get().getToMember().getMemberId()).isEqualTo(MEMBER_B);
+        assertThatThrownBy(ex::get)
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(overdraft::get)
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+}
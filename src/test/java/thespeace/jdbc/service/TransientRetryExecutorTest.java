@@ -0,0 +1,101 @@
+package thespeace.jdbc.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransientRetryExecutorTest {
+
+    @Test
+    void retryTransient() {
+        TransientRetryExecutor executor = new TransientRetryExecutor(3, Duration.ofMillis(1), Duration.ofMillis(5), 0.1, 100);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = executor.execute(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new CannotAcquireLockException("lock timeout");
+            }
+            if (attempts.get() == 2) {
+                throw new DeadlockLoserDataAccessException("deadlock", null);
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(attempts.get()).isEqualTo(3);
+        TransientRetryExecutor.Metrics metrics = executor.metrics();
+        assertThat(metrics.getRetries()).isEqualTo(2);
+        assertThat(metrics.getRecovered()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectInsideTransaction() {
+        TransientRetryExecutor executor = new TransientRetryExecutor();
+        AtomicInteger attempts = new AtomicInteger();
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertThatThrownBy(() -> executor.run(attempts::incrementAndGet))
+                    .isInstanceOf(IllegalStateException.class);
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        assertThat(attempts.get()).isEqualTo(0);
+    }
+
+    @Test
+    void nonTransientIsNotRetried() {
+        TransientRetryExecutor executor = new TransientRetryExecutor();
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> executor.run(() -> {
+            attempts.incrementAndGet();
+            throw new DataIntegrityViolationException("duplicate key");
+        })).isInstanceOf(DataIntegrityViolationException.class);
+
+        assertThat(attempts.get()).isEqualTo(1);
+        assertThat(executor.metrics().getNonTransient()).isEqualTo(1);
+    }
+
+    @Test
+    void exhausted() {
+        TransientRetryExecutor executor = new TransientRetryExecutor(3, Duration.ofMillis(1), Duration.ofMillis(5), 0.1, 100);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> executor.run(() -> {
+            attempts.incrementAndGet();
+            throw new CannotAcquireLockException("lock timeout");
+        })).isInstanceOf(CannotAcquireLockException.class);
+
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(executor.metrics().getExhausted()).isEqualTo(1);
+    }
+
+    @Test
+    void retryBudget() {
+        //토큰 2개, 호출마다 채워지는 토큰 없음
+        TransientRetryExecutor executor = new TransientRetryExecutor(10, Duration.ZERO, Duration.ZERO, 0, 2);
+        AtomicInteger attempts = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> executor.run(() -> {
+                attempts.incrementAndGet();
+                throw new CannotAcquireLockException("lock timeout");
+            })).isInstanceOf(CannotAcquireLockException.class);
+        }
+
+        //첫 호출이 재시도 2번으로 토큰을 다 쓰고, 이후 호출은 재시도하지 않는다.
+        assertThat(attempts.get()).isEqualTo(3 + 1 + 1);
+        assertThat(executor.metrics().getRetries()).isEqualTo(2);
+        assertThat(executor.metrics().getBudgetRejected()).isEqualTo(3);
+    }
+}